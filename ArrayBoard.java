@@ -0,0 +1,33 @@
+
+/**
+ * ArrayBoard: A Board kept in a char[][], one array per row. Reading and
+ * writing a cell is a plain array access, which makes it the fastest board
+ * for small levels. Nobody is told about the moves.
+ *
+ */
+public class ArrayBoard implements Board {
+
+	public final char[][] cells; // the rows of the board
+
+	/**
+	 * @param cells the rows of the board, used as they are (not copied)
+	 */
+	public ArrayBoard(char[][] cells) {
+		this.cells = cells;
+	}
+
+	public boolean inBounds(int row, int col) {
+		return row >= 0 && row < cells.length && col >= 0 && col < cells[row].length;
+	}
+
+	public char get(int row, int col) {
+		return cells[row][col];
+	}
+
+	public void set(int row, int col, char ch) {
+		cells[row][col] = ch;
+	}
+
+	public void moved(int[] position, int[] steps, boolean pushed) {
+	}
+}
@@ -0,0 +1,45 @@
+
+/**
+ * Board: The cells of a game board, as the moves in Sokoban.java see them.
+ * ChunkedBoard is the board of a game of any size; ArrayBoard is a plain
+ * char[][] for code that plays a lot of short games on one small level, like
+ * PlayoutEngine. The moves are written once against this interface, so both
+ * boards follow the same rules.
+ *
+ * Cells past the end of a row are outside the board.
+ *
+ */
+public interface Board {
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return true when the cell is on the board
+	 */
+	boolean inBounds(int row, int col);
+
+	/**
+	 * @param row a row on the board
+	 * @param col a column on the board
+	 * @return the character of the cell
+	 */
+	char get(int row, int col);
+
+	/**
+	 * Changes a cell.
+	 *
+	 * @param row a row on the board
+	 * @param col a column on the board
+	 * @param ch  the new character of the cell
+	 */
+	void set(int row, int col, char ch);
+
+	/**
+	 * Called by movePlayer() after every step of the worker.
+	 *
+	 * @param position the position of the worker after the step
+	 * @param steps    the step of the worker
+	 * @param pushed   true when a box was pushed
+	 */
+	void moved(int[] position, int[] steps, boolean pushed);
+}
@@ -0,0 +1,275 @@
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * BoardEvents: Lets spectators, recorders and analytics follow a game while it
+ * is played. Every move of the worker becomes one event of a single byte:
+ *
+ * <pre>
+ * bits 0-1  direction: 0 up, 1 down, 2 left, 3 right
+ * bit  2    1 when a box was pushed
+ * bits 3-4  boxes on goals: 0 same, 1 one more, 2 one less
+ * </pre>
+ *
+ * From the direction and the worker's position the cells that changed follow:
+ * the cell the worker left, the cell it moved to and, after a push, the cell
+ * the box moved to.
+ *
+ * The events go into a ring buffer of Config.EVENT_BUFFER bytes. The game
+ * never waits for an observer: it writes the byte and moves on, and an
+ * observer that falls more than a ring behind notices it and starts again
+ * from a snapshot. A snapshot is a copy of the ChunkedBoard, which only copies
+ * the list of chunks, and one is taken every half ring, so there is always one
+ * that the events in the ring can be replayed from.
+ *
+ * Only the game thread may call step(); any thread may create and use an
+ * Observer.
+ *
+ */
+public class BoardEvents {
+
+	public static final int UP = 0;
+	public static final int DOWN = 1;
+	public static final int LEFT = 2;
+	public static final int RIGHT = 3;
+
+	private static final int[][] STEPS = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+
+	private static volatile BoardEvents current; // the events of the game being played
+
+	/**
+	 * The board at one point of the game.
+	 */
+	public static class Snapshot {
+		public final long seq; // number of events before the snapshot
+		public final ChunkedBoard board; // the board, shared, never changed
+		public final int row; // row of the worker
+		public final int col; // column of the worker
+
+		public Snapshot(long seq, ChunkedBoard board, int row, int col) {
+			this.seq = seq;
+			this.board = board;
+			this.row = row;
+			this.col = col;
+		}
+	}
+
+	/**
+	 * One event, decoded.
+	 */
+	public static class Delta {
+		public final long seq; // number of the event
+		public final byte code; // the event as it is stored
+		public final int fromRow, fromCol; // where the worker was
+		public final int toRow, toCol; // where the worker is now
+		public final boolean pushed; // true when a box was pushed
+		public final int boxRow, boxCol; // where the pushed box is now, -1 if none
+		public final int goalChange; // change in the number of boxes on goals
+		public final int openGoals; // goals without a box after the move
+
+		public Delta(long seq, byte code, int fromRow, int fromCol, int toRow, int toCol, int openGoals) {
+			this.seq = seq;
+			this.code = code;
+			this.fromRow = fromRow;
+			this.fromCol = fromCol;
+			this.toRow = toRow;
+			this.toCol = toCol;
+			this.pushed = pushed(code);
+			this.boxRow = pushed ? 2 * toRow - fromRow : -1;
+			this.boxCol = pushed ? 2 * toCol - fromCol : -1;
+			this.goalChange = goalChange(code);
+			this.openGoals = openGoals;
+		}
+	}
+
+	/**
+	 * Follows the events of a game. The observer keeps its own copy of the board
+	 * and replays every event on it with movePlayer(), so the copy is always the
+	 * board as it was after the last event returned by poll().
+	 */
+	public class Observer {
+		private ChunkedBoard board;
+		private final int[] position = new int[2];
+		private long next; // the next event to read
+		private int resyncs; // times the observer fell behind and started again
+
+		private Observer() {
+			resync();
+		}
+
+		/**
+		 * Starts again from the newest snapshot.
+		 */
+		public void resync() {
+			Snapshot snap = snapshot;
+			board = snap.board.copy();
+			position[0] = snap.row;
+			position[1] = snap.col;
+			next = snap.seq;
+		}
+
+		/**
+		 * Reads the next event. Algorithm: the event is read from the ring and then
+		 * the number of published events is checked again; if the game has
+		 * written a whole ring since, the byte may be from a newer event, so the
+		 * observer resyncs instead. An acquire fence between the two reads keeps
+		 * the check from being done before the byte is read. Otherwise the move is
+		 * replayed on the observer's board.
+		 *
+		 * @return the next event, or null when the observer has seen every event
+		 */
+		public Delta poll() {
+			while (true) {
+				long pub = published;
+				if (next >= pub)
+					return null;
+				byte code = ring[(int) (next & mask)];
+				VarHandle.acquireFence();
+				if (published - next >= ring.length) {
+					resyncs++;
+					resync();
+					continue;
+				}
+				int fromRow = position[0], fromCol = position[1];
+				Sokoban.movePlayer(board, position, STEPS[direction(code)]);
+				return new Delta(next++, code, fromRow, fromCol, position[0], position[1], board.openGoals());
+			}
+		}
+
+		/**
+		 * @return the observer's copy of the board (do not change it)
+		 */
+		public ChunkedBoard board() {
+			return board;
+		}
+
+		/**
+		 * @return row and column of the worker on the observer's board
+		 */
+		public int[] position() {
+			return position.clone();
+		}
+
+		/**
+		 * @return the number of times the observer fell behind and resynced
+		 */
+		public int resyncs() {
+			return resyncs;
+		}
+	}
+
+	private final ChunkedBoard board;
+	private final int[] position;
+	private final byte[] ring;
+	private final int mask;
+	private long seq; // events written, only used by the game thread
+	private volatile long published; // events observers may read
+	private volatile Snapshot snapshot; // the newest snapshot
+
+	/**
+	 * Starts the events of a game and makes them the current ones.
+	 *
+	 * @param board    the board of the game
+	 * @param position the position of the worker, updated by the game
+	 */
+	public BoardEvents(ChunkedBoard board, int[] position) {
+		int size = Integer.highestOneBit(Math.max(2, Config.EVENT_BUFFER));
+		this.board = board;
+		this.position = position;
+		this.ring = new byte[size];
+		this.mask = size - 1;
+		this.snapshot = new Snapshot(0, board.copy(), position[0], position[1]);
+		board.events = this;
+		current = this;
+	}
+
+	/**
+	 * @return the events of the game being played, or null if there is none
+	 */
+	public static BoardEvents current() {
+		return current;
+	}
+
+	/**
+	 * @return a new observer, starting at the newest snapshot
+	 */
+	public Observer observe() {
+		return new Observer();
+	}
+
+	/**
+	 * @return the newest snapshot
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return the number of events so far
+	 */
+	public long published() {
+		return published;
+	}
+
+	/**
+	 * Packs a move into an event byte.
+	 *
+	 * @param direction  UP, DOWN, LEFT or RIGHT
+	 * @param pushed     true when a box was pushed
+	 * @param goalChange change in the number of boxes on goals (-1, 0 or 1)
+	 * @return the event
+	 */
+	public static byte encode(int direction, boolean pushed, int goalChange) {
+		return (byte) (direction | (pushed ? 4 : 0) | (goalChange > 0 ? 8 : goalChange < 0 ? 16 : 0));
+	}
+
+	public static int direction(byte code) {
+		return code & 3;
+	}
+
+	public static boolean pushed(byte code) {
+		return (code & 4) != 0;
+	}
+
+	public static int goalChange(byte code) {
+		return (code & 8) != 0 ? 1 : (code & 16) != 0 ? -1 : 0;
+	}
+
+	/**
+	 * @param steps a size 2 array with one step of the worker
+	 * @return the direction of the step
+	 */
+	public static int direction(int[] steps) {
+		if (steps[0] != 0)
+			return steps[0] < 0 ? UP : DOWN;
+		return steps[1] < 0 ? LEFT : RIGHT;
+	}
+
+	/**
+	 * Adds the event for a move that was just made. Called by movePlayer() on
+	 * the game thread. Every half ring a new snapshot is taken. A store fence
+	 * before the byte is written keeps it from being seen before the count of
+	 * the event before it, so an observer that sees the new byte also sees that
+	 * it has been lapped.
+	 *
+	 * @param steps      the step of the worker
+	 * @param pushed     true when a box was pushed
+	 * @param goalChange change in the number of boxes on goals
+	 */
+	public void step(int[] steps, boolean pushed, int goalChange) {
+		VarHandle.storeStoreFence();
+		ring[(int) (seq & mask)] = encode(direction(steps), pushed, goalChange);
+		published = ++seq;
+		if (seq - snapshot.seq >= ring.length / 2)
+			snapshot = new Snapshot(seq, board.copy(), position[0], position[1]);
+	}
+
+	/**
+	 * Stops the events of the game. Observers can still read what was written.
+	 */
+	public void close() {
+		board.events = null;
+		if (current == this)
+			current = null;
+	}
+}
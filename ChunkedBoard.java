@@ -0,0 +1,184 @@
+
+import java.util.Arrays;
+
+/**
+ * ChunkedBoard: The game board for levels of any size. The cells are kept in
+ * square chunks of CHUNK x CHUNK cells instead of one char[][]. A chunk that
+ * is all wall is never allocated (it is just null), which saves most of the
+ * memory on big generated levels where a lot of the rectangle is outside the
+ * rooms.
+ *
+ * Chunks are shared between copies of a board and only copied the first time
+ * a copy writes to them, so starting a new game from a level only copies the
+ * list of chunks, not the cells. The board also counts the goals that do not
+ * have a box on them, so checking for a win does not have to look at the
+ * board.
+ *
+ * Cells past the end of a row are outside the board, like in the char[][]
+ * boards.
+ *
+ */
+public class ChunkedBoard implements Board {
+
+	public static final int CHUNK_BITS = 6; // chunks are 2^CHUNK_BITS cells on a side
+	public static final int CHUNK = 1 << CHUNK_BITS;
+	private static final int MASK = CHUNK - 1;
+
+	private final int[] rowLength; // length of every row
+	private final int chunkCols; // chunks per row of chunks
+	private final char[][] chunks; // the chunks, null when all wall
+	private final boolean[] owned; // true when this board may write to the chunk
+	private int openGoals; // goals without a box: '.' and '+'
+	public final int workerRow; // row of the worker when the board was made
+	public final int workerCol; // column of the worker when the board was made
+	public BoardEvents events; // told about every move, null when nobody follows the game
+
+	private ChunkedBoard(int[] rowLength, int chunkCols, char[][] chunks, int openGoals, int workerRow,
+			int workerCol) {
+		this.rowLength = rowLength;
+		this.chunkCols = chunkCols;
+		this.chunks = chunks;
+		this.owned = new boolean[chunks.length];
+		this.openGoals = openGoals;
+		this.workerRow = workerRow;
+		this.workerCol = workerCol;
+	}
+
+	/**
+	 * Builds the board a level starts with. Algorithm: the cells are copied into
+	 * their chunks (allocating a chunk only when a cell in it is not a wall) and
+	 * then the goals are marked with Sokoban.markGoals().
+	 *
+	 * @param level the level
+	 * @param goals the goal list of the level
+	 * @return the board
+	 */
+	public static ChunkedBoard fromLevel(char[][] level, int[] goals) {
+		int[] rowLength = new int[level.length];
+		int width = 0;
+		for (int i = 0; i < level.length; i++) {
+			rowLength[i] = level[i].length;
+			width = Math.max(width, level[i].length);
+		}
+		int chunkCols = (width + MASK) >> CHUNK_BITS;
+		int chunkRows = (level.length + MASK) >> CHUNK_BITS;
+		int workerRow = -1, workerCol = -1;
+		ChunkedBoard board = new ChunkedBoard(rowLength, chunkCols, new char[chunkRows * chunkCols][], 0, -1, -1);
+		for (int i = 0; i < level.length; i++) {
+			for (int j = 0; j < level[i].length; j++) {
+				board.set(i, j, level[i][j]);
+				if (level[i][j] == Config.WORKER_CHAR || level[i][j] == Config.WORK_GOAL_CHAR) {
+					workerRow = i;
+					workerCol = j;
+				}
+			}
+		}
+		Sokoban.markGoals(board, goals);
+		ChunkedBoard made = new ChunkedBoard(rowLength, chunkCols, board.chunks, board.openGoals, workerRow,
+				workerCol);
+		Arrays.fill(made.owned, true);
+		return made;
+	}
+
+	/**
+	 * Makes a copy of the board that shares its chunks. Neither board owns the
+	 * shared chunks any more, so whichever writes first makes its own copy.
+	 *
+	 * @return the copy
+	 */
+	public ChunkedBoard copy() {
+		Arrays.fill(owned, false);
+		return new ChunkedBoard(rowLength, chunkCols, chunks.clone(), openGoals, workerRow, workerCol);
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int rows() {
+		return rowLength.length;
+	}
+
+	/**
+	 * @param row a row of the board
+	 * @return the number of cells in the row
+	 */
+	public int rowLength(int row) {
+		return rowLength[row];
+	}
+
+	/**
+	 * @param row a row
+	 * @param col a column
+	 * @return true when the cell is on the board
+	 */
+	public boolean inBounds(int row, int col) {
+		return row >= 0 && row < rowLength.length && col >= 0 && col < rowLength[row];
+	}
+
+	/**
+	 * @param row a row on the board
+	 * @param col a column on the board
+	 * @return the character of the cell
+	 */
+	public char get(int row, int col) {
+		char[] chunk = chunks[(row >> CHUNK_BITS) * chunkCols + (col >> CHUNK_BITS)];
+		return chunk == null ? Config.WALL_CHAR : chunk[((row & MASK) << CHUNK_BITS) | (col & MASK)];
+	}
+
+	/**
+	 * Changes a cell. The chunk is allocated (filled with walls) or copied if
+	 * this board does not own it yet, and the count of open goals is kept up to
+	 * date.
+	 *
+	 * @param row a row on the board
+	 * @param col a column on the board
+	 * @param ch  the new character of the cell
+	 */
+	public void set(int row, int col, char ch) {
+		int k = (row >> CHUNK_BITS) * chunkCols + (col >> CHUNK_BITS);
+		char[] chunk = chunks[k];
+		if (chunk == null && ch == Config.WALL_CHAR)
+			return;
+		if (chunk == null) {
+			chunk = new char[CHUNK * CHUNK];
+			Arrays.fill(chunk, Config.WALL_CHAR);
+			chunks[k] = chunk;
+			owned[k] = true;
+		} else if (!owned[k]) {
+			chunk = chunk.clone();
+			chunks[k] = chunk;
+			owned[k] = true;
+		}
+		int at = ((row & MASK) << CHUNK_BITS) | (col & MASK);
+		if (chunk[at] == Config.GOAL_CHAR || chunk[at] == Config.WORK_GOAL_CHAR)
+			openGoals--;
+		if (ch == Config.GOAL_CHAR || ch == Config.WORK_GOAL_CHAR)
+			openGoals++;
+		chunk[at] = ch;
+	}
+
+	/**
+	 * Adds the move to the events of the board, if it has any. After a push the
+	 * change in boxes on goals is read from the board: the box is on a goal when
+	 * its cell shows '*', and it was on one when the worker's cell shows '+'.
+	 */
+	public void moved(int[] position, int[] steps, boolean pushed) {
+		if (events == null)
+			return;
+		int goalChange = 0;
+		if (pushed) {
+			if (get(position[0] + steps[0], position[1] + steps[1]) == Config.BOX_GOAL_CHAR)
+				goalChange++;
+			if (get(position[0], position[1]) == Config.WORK_GOAL_CHAR)
+				goalChange--;
+		}
+		events.step(steps, pushed, goalChange);
+	}
+
+	/**
+	 * @return the number of goals without a box on them ('.' and '+')
+	 */
+	public int openGoals() {
+		return openGoals;
+	}
+}
@@ -79,4 +79,30 @@ public class Config {
 	public static final char LEFT_CHAR = '4';
 	public static final char RIGHT_CHAR = '6';
 	public static final char QUIT_CHAR = 'q';
+	public static final int VIEW_ROWS = 20; // rows of the board shown around the worker
+	public static final int VIEW_COLS = 60; // columns of the board shown around the worker
+	public static final char HINT_CHAR = 'h';
+	public static final long HINT_MILLIS = 50; // time the hint command may take
+	public static final int HINT_MAX_STATES = 1000000; // positions remembered by the hints of one game
+
+	/**
+	 * Solutions found by the solver are kept in this file between runs.
+	 */
+	public static final String SOLUTION_CACHE_FILE = "solutions.cache"; // cache file name
+	public static final int SOLUTION_CACHE_SIZE = 10000; // most levels kept in the cache
+
+	/**
+	 * Every move of the game being played is written to this file so the game
+	 * can be resumed. The file is forced to disk after JOURNAL_SYNC_MOVES moves
+	 * or JOURNAL_SYNC_MILLIS milliseconds, whichever comes first.
+	 */
+	public static final String JOURNAL_FILE = "sokoban.journal"; // journal file name
+	public static final int JOURNAL_SYNC_MOVES = 16; // moves written between syncs
+	public static final long JOURNAL_SYNC_MILLIS = 200; // most time between syncs
+
+	/**
+	 * Observers of a game (see BoardEvents) can fall this many moves behind
+	 * before they have to start again from a snapshot. A power of 2.
+	 */
+	public static final int EVENT_BUFFER = 4096; // moves kept for observers
 }
@@ -0,0 +1,741 @@
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.io.*;
+
+/**
+ * HintEngine: Answers the hint command of one game. A hint is the next move
+ * the player should type, worked out within Config.HINT_MILLIS so the game
+ * never waits on it for long, even on big boards.
+ *
+ * Everything that looks at the whole board is done once per game, on a
+ * background thread started when the game starts: flattening the board, the
+ * dead squares, the distances to the goals and the lookup in the solution
+ * cache. After that the same thread follows the game through its BoardEvents
+ * and keeps the position up to date, also reading the whole board again when
+ * it fell too far behind, so a hint only has to pick up the position it left.
+ * A hint asked for before the background work is done, or while the board is
+ * being read again, says so instead of making the game wait.
+ *
+ * The engine remembers what it learned for the rest of the game. Positions on
+ * a solution it already found give their next push straight away, positions
+ * it proved to be deadlocks are never searched again, and asking twice from
+ * the same position carries on the search where the last hint stopped. When
+ * the solver has solved the level before, its solution is read from the
+ * solution cache and every position on it is known from the start. The cache
+ * is looked up by the level as it was loaded, not by the board of the game,
+ * so a game resumed from its journal finds the solution too. The hints
+ * never add to the cache, because their solutions do not always have the
+ * fewest pushes and the cache is meant to only hold those, so the cache is
+ * opened read only and the game never changes the file.
+ *
+ * The search is a weighted A* over pushes. The estimate for a position is the
+ * sum of the pushes each box needs to reach its nearest goal. When time runs
+ * out before a solution is found, the hint moves towards the position with the
+ * lowest estimate seen so far.
+ *
+ * On a big board a single flood fill of the worker's area can take longer than
+ * a hint may, so the search never starts one over: a flood fill that runs into
+ * the deadline is carried on by the next hint, and so is the expansion it
+ * belongs to. Pushes that solve the level are recognised before their flood
+ * fill, and the best push of the current position is known as soon as the
+ * position itself is flood filled. The walk of the worker to the push is
+ * carried on the same way.
+ *
+ */
+public class HintEngine implements Closeable {
+
+	public static final int SOLUTION = 2; // the move is on a full solution
+	public static final int BEST_GUESS = 1; // time ran out, the move heads to the best position found
+	public static final int BUSY = 0; // no move yet, the engine is still reading the board
+	public static final int DEADLOCK = -1; // the position can no longer be solved
+
+	private static final int WEIGHT = 2; // how much more the estimate counts than the pushes so far
+	private static final int CLOCK_CELLS = 4096; // cells a flood fill looks at between checks of the clock
+	private static final int FOLLOW_MILLIS = 10; // how often the moves are read when no hint is waiting
+
+	/**
+	 * A position reached by the search, with the push that led to it. Until its
+	 * flood fill is done, the last cell of state is where the worker stands
+	 * instead of the normalized worker.
+	 */
+	private static class Node {
+		final int[] state;
+		final Node parent;
+		final int pushes; // pushes from the position the search started at
+		final int estimate; // pushes still needed, at least
+
+		Node(int[] state, Node parent, int pushes, int estimate) {
+			this.state = state;
+			this.parent = parent;
+			this.pushes = pushes;
+			this.estimate = estimate;
+		}
+	}
+
+	/**
+	 * The answer to a hint command.
+	 */
+	public static class Hint {
+		public final int status; // SOLUTION, BEST_GUESS, BUSY or DEADLOCK
+		public final String move; // the move to type, null for a deadlock, a solved board or BUSY
+
+		public Hint(int status, String move) {
+			this.status = status;
+			this.move = move;
+		}
+	}
+
+	private final char[][] level;
+	private final int[] goalList;
+	private final BoardEvents.Observer observer;
+	private final CountDownLatch ready = new CountDownLatch(1);
+	private volatile boolean closed;
+
+	// set up once by the background thread
+	private LevelGrid grid;
+	private boolean[] dead;
+	private int[] distances;
+	private boolean[] boxAt; // the boxes of the position being flood filled
+	private int[] mark; // cells reached by the flood fill are marked with stamp
+	private int[] stack; // cells the flood fill still has to look at
+	private int[] walked; // cells reached by the walk in firstMove() are marked with walkStamp
+	private int[] came; // the cell each cell was reached from, in firstMove()
+	private int[] walkQueue;
+	private int stamp;
+	private int walkStamp;
+	private long walkNanos; // time the last walk in firstMove() took
+
+	// the walk in progress, from walkStart around the boxes of walkOwner's root
+	private Object walkOwner;
+	private int walkStart;
+	private int walkHead;
+	private int walkTail;
+
+	// the position of the game as the background thread last saw it
+	private final Object follow = new Object(); // guards these fields
+	private int[] followBoxes;
+	private int followWorker;
+	private int[] followRoot; // the position with the worker normalized, when known
+	private long followPushes; // counts the times the boxes changed
+	private long asked; // hints that asked for the position
+	private long answered; // the last of those the position is up to date for
+
+	// used by the background thread after a resync, made the first time one happens
+	private boolean[] resyncBoxAt;
+	private int[] resyncMark;
+	private int[] resyncStack;
+	private int resyncStamp;
+
+	// the flood fill in progress
+	private Object floodOwner; // what the flood fill is for, null when there is none
+	private int floodTop;
+	private int floodSmallest;
+
+	// the position of the game
+	private int[] boxes;
+	private int worker;
+	private long pushes; // followPushes when boxes was taken
+	private Object rootToken = new Object(); // replaced whenever a box is pushed
+	private Object rootDone; // rootToken when root was worked out
+	private int[] root; // the position of the game with the worker normalized
+
+	private final HashMap<String, int[]> solutionNext = new HashMap<String, int[]>();
+	private final HashSet<String> deadlocks = new HashSet<String>();
+	private String searchRoot;
+	private PriorityQueue<Node> open;
+	private HashSet<String> seen;
+	private Node best;
+	private Node rootBest; // the best push from the position the search started at
+	private Node expanding; // the node being expanded, null between expansions
+	private ArrayList<Node> pending; // its children, null until its flood fill is done
+	private int nextPending; // the first child that is not flood filled yet
+
+	/**
+	 * Sets up the hints for a new game and starts the background work. The
+	 * background thread also runs a first search, so the search is warmed up by
+	 * the time the first hint is needed, and then follows the game until the
+	 * engine is closed.
+	 *
+	 * @param events   the events of the game being played
+	 * @param level    the level being played, as it was loaded
+	 * @param goalList the goal list of the level being played
+	 */
+	public HintEngine(BoardEvents events, char[][] level, int[] goalList) {
+		this.level = level;
+		this.goalList = goalList;
+		this.observer = events.observe();
+		Thread setup = new Thread(() -> {
+			try {
+				setUp();
+				if (!closed)
+					compute(System.nanoTime() + Config.HINT_MILLIS * 1000000);
+			} finally {
+				ready.countDown();
+			}
+			if (!closed)
+				followGame();
+		}, "hint-setup");
+		setup.setDaemon(true);
+		setup.start();
+	}
+
+	/**
+	 * Does the work that looks at the whole board. Runs on the background
+	 * thread, which owns the observer for the whole game.
+	 */
+	private void setUp() {
+		grid = LevelGrid.fromBoard(observer.board(), goalList);
+		boxes = grid.boxes.clone();
+		worker = grid.worker;
+		followBoxes = boxes.clone();
+		followWorker = worker;
+		if (closed)
+			return;
+		dead = grid.deadSquares();
+		distances = grid.goalDistances();
+		boxAt = new boolean[grid.walls.length];
+		mark = new int[grid.walls.length];
+		stack = new int[grid.walls.length];
+		walked = new int[grid.walls.length];
+		came = new int[grid.walls.length];
+		walkQueue = new int[grid.walls.length];
+		if (closed)
+			return;
+		try (SolutionCache cache = new SolutionCache(new File(Config.SOLUTION_CACHE_FILE),
+				Config.SOLUTION_CACHE_SIZE, true)) {
+			LevelGrid start = LevelGrid.fromLevel(level, goalList);
+			Solver.Result cached = cache.get(SolutionCache.levelHash(start));
+			if (cached != null)
+				learn(cached.moves, start);
+		} catch (IOException e) {
+			// the hints still work, they just have to search
+		}
+	}
+
+	/**
+	 * Remembers a solution from the cache. Algorithm: the moves are played on the
+	 * flattened board from the start of the level, which is not where a resumed
+	 * game is, and the position after every push is linked to the one after the
+	 * next push.
+	 */
+	private void learn(ArrayList<String> moves, LevelGrid start) {
+		if (start.walls.length != grid.walls.length || start.boxes.length != boxes.length)
+			return;
+		ArrayList<int[]> path = new ArrayList<int[]>();
+		int[] state = Arrays.copyOf(start.boxes, boxes.length + 1);
+		int at = start.worker;
+		state[boxes.length] = normalize(state, at);
+		path.add(state.clone());
+		for (String move : moves) {
+			int[] delta = Sokoban.calcMoves(move);
+			int count = Math.abs(delta[0]) + Math.abs(delta[1]);
+			int d = delta[0] != 0 ? Integer.signum(delta[0]) * grid.cols : Integer.signum(delta[1]);
+			for (int i = 0; i < count; i++) {
+				at += d;
+				int b = Arrays.binarySearch(state, 0, boxes.length, at);
+				if (b < 0)
+					continue;
+				state[b] = at + d;
+				Arrays.sort(state, 0, boxes.length);
+				state[boxes.length] = normalize(state, at);
+				path.add(state.clone());
+			}
+		}
+		if (path.size() < 2 || !Solver.isSolved(grid, path.get(path.size() - 1)))
+			return;
+		for (int i = 0; i < path.size() - 1; i++)
+			solutionNext.put(Solver.key(path.get(i)), path.get(i + 1));
+	}
+
+	/**
+	 * Keeps the position of the game up to date, on the background thread.
+	 * Algorithm: the moves are read from the observer and applied to the boxes
+	 * and the worker. When the observer had to resync, the position is read from
+	 * its board instead (see readBoard()), and the worker is normalized right
+	 * away so the next hint does not have to flood fill the position itself.
+	 * The position is then
+	 * handed over under the follow lock, telling the hints that asked before
+	 * these moves were read that it is current. The thread waits up to
+	 * FOLLOW_MILLIS for the next hint, so it never falls far behind the game.
+	 */
+	private void followGame() {
+		int[] now = followBoxes.clone();
+		int at = followWorker;
+		int resyncs = observer.resyncs();
+		while (!closed) {
+			long ask;
+			synchronized (follow) {
+				ask = asked;
+			}
+			boolean pushed = false;
+			BoardEvents.Delta delta;
+			while ((delta = observer.poll()) != null) {
+				at = grid.cellOf(delta.toRow, delta.toCol);
+				if (delta.pushed) {
+					int b = Arrays.binarySearch(now, at);
+					if (b >= 0) {
+						now[b] = grid.cellOf(delta.boxRow, delta.boxCol);
+						Arrays.sort(now);
+					}
+					pushed = true;
+				}
+			}
+			int[] normalized = null;
+			if (observer.resyncs() != resyncs) {
+				resyncs = observer.resyncs();
+				at = readBoard(now);
+				normalized = Arrays.copyOf(now, now.length + 1);
+				normalized[now.length] = grid.reachable(resyncBoxAt, at, resyncMark, ++resyncStamp, resyncStack);
+			}
+			synchronized (follow) {
+				followWorker = at;
+				if (pushed || normalized != null) {
+					followBoxes = now.clone();
+					followRoot = normalized;
+					followPushes++;
+				}
+				answered = ask;
+				follow.notifyAll();
+				try {
+					if (asked == answered && !closed)
+						follow.wait(FOLLOW_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the position from the observer's board after a resync. The walls
+	 * and goals never change, so only the boxes and the worker are looked for,
+	 * cell by cell, without building a new LevelGrid; that would make hundreds
+	 * of megabytes of garbage on a big board, and collecting it stops the game
+	 * too.
+	 *
+	 * @param into gets the cells of the boxes, sorted
+	 * @return the cell of the worker
+	 */
+	private int readBoard(int[] into) {
+		if (resyncMark == null) {
+			resyncBoxAt = new boolean[grid.walls.length];
+			resyncMark = new int[grid.walls.length];
+			resyncStack = new int[grid.walls.length];
+		}
+		Arrays.fill(resyncBoxAt, false);
+		ChunkedBoard board = observer.board();
+		int found = 0, at = -1;
+		for (int row = 0; row < board.rows(); row++) {
+			for (int col = 0; col < board.rowLength(row); col++) {
+				char ch = board.get(row, col);
+				if ((ch == Config.BOX_CHAR || ch == Config.BOX_GOAL_CHAR) && found < into.length) {
+					into[found++] = grid.cellOf(row, col);
+					resyncBoxAt[grid.cellOf(row, col)] = true;
+				} else if (ch == Config.WORKER_CHAR || ch == Config.WORK_GOAL_CHAR) {
+					at = grid.cellOf(row, col);
+				}
+			}
+		}
+		Arrays.sort(into);
+		return at;
+	}
+
+	/**
+	 * Takes the position of the game from the background thread, after it read
+	 * every move made so far. A new root is needed when the boxes changed,
+	 * unless the background thread already normalized the worker.
+	 *
+	 * @param deadline the System.nanoTime() to give up at
+	 * @return false if the background thread did not catch up in time
+	 */
+	private boolean catchUp(long deadline) throws InterruptedException {
+		synchronized (follow) {
+			long ask = ++asked;
+			follow.notifyAll();
+			while (answered < ask) {
+				long wait = deadline - System.nanoTime();
+				if (wait <= 0)
+					return false;
+				follow.wait(wait / 1000000, (int) (wait % 1000000));
+			}
+			worker = followWorker;
+			if (pushes != followPushes) {
+				pushes = followPushes;
+				boxes = followBoxes;
+				rootToken = new Object();
+				if (followRoot != null) {
+					root = followRoot;
+					rootDone = rootToken;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Flood fills the cells the worker can reach around the boxes of a position,
+	 * marking them with stamp. Algorithm: the flood fill keeps its stack between
+	 * calls, so when the deadline passes it stops and the next call for the same
+	 * owner carries on from there. A call for another owner starts a new one.
+	 *
+	 * @param owner    what the flood fill is for
+	 * @param state    the position, only the boxes are used
+	 * @param from     the cell of the worker
+	 * @param deadline the System.nanoTime() to stop at
+	 * @return the smallest reachable cell (the normalized worker), or -1 if the
+	 *         deadline passed first
+	 */
+	private int flood(Object owner, int[] state, int from, long deadline) {
+		int n = state.length - 1;
+		if (owner != floodOwner) {
+			floodOwner = owner;
+			stamp++;
+			floodTop = 0;
+			floodSmallest = from;
+			stack[floodTop++] = from;
+			mark[from] = stamp;
+		}
+		for (int i = 0; i < n; i++)
+			boxAt[state[i]] = true;
+		int work = 0;
+		while (floodTop > 0) {
+			if (++work == CLOCK_CELLS) {
+				work = 0;
+				if (System.nanoTime() > deadline)
+					break;
+			}
+			int cell = stack[--floodTop];
+			if (cell < floodSmallest)
+				floodSmallest = cell;
+			for (int d : grid.dirs) {
+				int next = cell + d;
+				if (mark[next] != stamp && !grid.walls[next] && !boxAt[next]) {
+					mark[next] = stamp;
+					stack[floodTop++] = next;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++)
+			boxAt[state[i]] = false;
+		return floodTop > 0 ? -1 : floodSmallest;
+	}
+
+	/**
+	 * @return the normalized worker of a position, however long it takes
+	 */
+	private int normalize(int[] state, int from) {
+		return flood(new Object(), state, from, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param state a position
+	 * @return the sum of the pushes each box needs to reach its nearest goal, or
+	 *         Integer.MAX_VALUE if a box is on a dead square
+	 */
+	private int estimate(int[] state) {
+		int sum = 0;
+		for (int i = 0; i < state.length - 1; i++) {
+			if (distances[state[i]] == Integer.MAX_VALUE)
+				return Integer.MAX_VALUE;
+			sum += distances[state[i]];
+		}
+		return sum;
+	}
+
+	/**
+	 * Lists the pushes from a node whose flood fill was just finished, best
+	 * estimate first. A push is legal if the worker reached the cell behind the
+	 * box and the cell in front of it is floor, free and not a dead square. The
+	 * worker of each new position is where the box was, not yet normalized.
+	 */
+	private ArrayList<Node> pushes(Node node) {
+		int[] state = node.state;
+		int n = state.length - 1;
+		for (int i = 0; i < n; i++)
+			boxAt[state[i]] = true;
+		ArrayList<Node> next = new ArrayList<Node>();
+		for (int b = 0; b < n; b++) {
+			for (int d : grid.dirs) {
+				int box = state[b];
+				int to = box + d;
+				if (mark[box - d] != stamp || grid.walls[to] || boxAt[to] || dead[to])
+					continue;
+				int[] moved = state.clone();
+				moved[b] = to;
+				Arrays.sort(moved, 0, n);
+				moved[n] = box;
+				int h = estimate(moved);
+				if (h != Integer.MAX_VALUE)
+					next.add(new Node(moved, node, node.pushes + 1, h));
+			}
+		}
+		for (int i = 0; i < n; i++)
+			boxAt[state[i]] = false;
+		next.sort((x, y) -> Integer.compare(x.estimate, y.estimate));
+		return next;
+	}
+
+	/**
+	 * Works out the hint for the current board.
+	 *
+	 * @param millis the time the hint may take
+	 * @return the hint
+	 */
+	public Hint hint(long millis) {
+		long deadline = System.nanoTime() + millis * 1000000;
+		try {
+			if (!ready.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) || !catchUp(deadline))
+				return new Hint(BUSY, null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Hint(BUSY, null);
+		}
+		return compute(deadline);
+	}
+
+	/**
+	 * Algorithm: the worker is normalized again first if a box was pushed since
+	 * the last hint. Then the cheap answers are
+	 * tried in order: a box on a dead square or a position proven earlier means a
+	 * deadlock, and a position on a known solution gives its next push.
+	 * Otherwise the search runs until the deadline. It stops early at a solved
+	 * position or at any position on a known solution, and the whole solution is
+	 * remembered. If the search runs out of positions the board is a proven
+	 * deadlock.
+	 */
+	private Hint compute(long deadline) {
+		if (rootDone != rootToken) {
+			int[] state = Arrays.copyOf(boxes, boxes.length + 1);
+			state[boxes.length] = flood(rootToken, state, worker, deadline);
+			if (state[boxes.length] < 0)
+				return new Hint(BUSY, null);
+			root = state;
+			rootDone = rootToken;
+		}
+		String rootKey = Solver.key(root);
+		if (Solver.isSolved(grid, root))
+			return new Hint(SOLUTION, null);
+		if (deadlocks.contains(rootKey) || estimate(root) == Integer.MAX_VALUE)
+			return new Hint(DEADLOCK, null);
+		if (solutionNext.containsKey(rootKey))
+			return answer(SOLUTION, solutionNext.get(rootKey), deadline);
+
+		if (!rootKey.equals(searchRoot)) {
+			if (solutionNext.size() + deadlocks.size() > Config.HINT_MAX_STATES) {
+				solutionNext.clear();
+				deadlocks.clear();
+			}
+			searchRoot = rootKey;
+			open = new PriorityQueue<Node>((a, b) -> a.pushes + WEIGHT * a.estimate != b.pushes + WEIGHT * b.estimate
+					? Integer.compare(a.pushes + WEIGHT * a.estimate, b.pushes + WEIGHT * b.estimate)
+					: Integer.compare(a.estimate, b.estimate));
+			seen = new HashSet<String>();
+			best = new Node(root, null, 0, estimate(root));
+			rootBest = null;
+			expanding = null;
+			open.add(best);
+			seen.add(rootKey);
+		}
+		// the search leaves as much time as the last walk took, for firstMove()
+		long searchEnd = deadline - walkNanos;
+		Node found = null;
+		search: while (found == null && System.nanoTime() < searchEnd && seen.size() < Config.HINT_MAX_STATES) {
+			if (expanding == null) {
+				if (open.isEmpty())
+					break;
+				expanding = open.poll();
+				pending = null;
+			}
+			if (pending == null) {
+				int[] state = expanding.state;
+				if (flood(expanding, state, state[state.length - 1], searchEnd) < 0)
+					break;
+				pending = pushes(expanding);
+				nextPending = 0;
+				if (expanding.parent == null && !pending.isEmpty())
+					rootBest = pending.get(0);
+				for (Node child : pending) {
+					if (child.estimate == 0) {
+						found = child;
+						break search;
+					}
+				}
+			}
+			while (nextPending < pending.size()) {
+				Node child = pending.get(nextPending);
+				int[] state = child.state;
+				int normalized = flood(child, state, state[state.length - 1], searchEnd);
+				if (normalized < 0)
+					break search;
+				state[state.length - 1] = normalized;
+				nextPending++;
+				String key = Solver.key(state);
+				if (deadlocks.contains(key) || !seen.add(key))
+					continue;
+				if (solutionNext.containsKey(key)) {
+					found = child;
+					break search;
+				}
+				open.add(child);
+				if (child.estimate < best.estimate)
+					best = child;
+			}
+			expanding = null;
+		}
+
+		if (found != null) {
+			ArrayList<int[]> path = remember(found);
+			return answer(SOLUTION, path.get(1), deadline);
+		}
+		if (open.isEmpty() && expanding == null && seen.size() < Config.HINT_MAX_STATES) {
+			deadlocks.add(rootKey);
+			searchRoot = null;
+			return new Hint(DEADLOCK, null);
+		}
+		Node step = best;
+		while (step.parent != null && step.parent.parent != null)
+			step = step.parent;
+		if (step.parent == null)
+			step = rootBest; // no better position found yet, take the best first push
+		if (step == null)
+			return new Hint(BUSY, null);
+		return answer(BEST_GUESS, step.state, deadline);
+	}
+
+	/**
+	 * @return a hint with the first move towards the position after the next
+	 *         push, or BUSY when the walk to it is not done by the deadline
+	 */
+	private Hint answer(int status, int[] next, long deadline) {
+		String move = firstMove(root, next, deadline);
+		return move == null ? new Hint(BUSY, null) : new Hint(status, move);
+	}
+
+	/**
+	 * Remembers the solution found by the search: the path from the start of the
+	 * search to the node, followed by the known solution from there if the node
+	 * was already on one.
+	 *
+	 * @return the positions of the whole solution
+	 */
+	private ArrayList<int[]> remember(Node found) {
+		ArrayList<int[]> path = new ArrayList<int[]>();
+		for (Node node = found; node != null; node = node.parent)
+			path.add(node.state);
+		Collections.reverse(path);
+		int[] last = path.get(path.size() - 1);
+		while (solutionNext.containsKey(Solver.key(last))) {
+			last = solutionNext.get(Solver.key(last));
+			path.add(last);
+		}
+		for (int i = 0; i < path.size() - 1; i++)
+			solutionNext.put(Solver.key(path.get(i)), path.get(i + 1));
+		searchRoot = null;
+		expanding = null;
+		return path;
+	}
+
+	/**
+	 * Finds the first move the worker makes on the way to the next push.
+	 * Algorithm: a breadth first search from the cell behind the box back to the
+	 * worker, which stops as soon as it reaches the worker; following it from the
+	 * worker gives the walk, and the steps in the same direction at its start
+	 * are joined, like Solver.toMoves() does. The search checks the clock like
+	 * flood() and keeps its queue, so when the deadline passes the next call
+	 * from the same root and cell carries on, and a finished one still serves
+	 * after the worker walked elsewhere without pushing.
+	 *
+	 * @param from     the position now (root)
+	 * @param to       the position after the push, only the boxes are used
+	 * @param deadline the System.nanoTime() to stop at
+	 * @return the move to type, or null if the deadline passed first
+	 */
+	private String firstMove(int[] from, int[] to, long deadline) {
+		int n = from.length - 1;
+		int box = -1, target = -1;
+		for (int i = 0; i < n; i++) {
+			if (Arrays.binarySearch(to, 0, n, from[i]) < 0)
+				box = from[i];
+			if (Arrays.binarySearch(from, 0, n, to[i]) < 0)
+				target = to[i];
+		}
+		long begin = System.nanoTime();
+		int push = target - box;
+		int start = box - push;
+		if (walkOwner != rootDone || walkStart != start) {
+			walkOwner = rootDone;
+			walkStart = start;
+			walkStamp++;
+			walkHead = 0;
+			walkTail = 0;
+			walkQueue[walkTail++] = start;
+			walked[start] = walkStamp;
+			came[start] = start;
+		}
+		for (int i = 0; i < n; i++)
+			boxAt[from[i]] = true;
+		int work = 0;
+		while (walkHead < walkTail && walked[worker] != walkStamp) {
+			if (++work == CLOCK_CELLS) {
+				work = 0;
+				if (System.nanoTime() > deadline)
+					break;
+			}
+			int cell = walkQueue[walkHead++];
+			for (int d : grid.dirs) {
+				int next = cell + d;
+				if (walked[next] != walkStamp && !grid.walls[next] && !boxAt[next]) {
+					walked[next] = walkStamp;
+					came[next] = cell;
+					walkQueue[walkTail++] = next;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++)
+			boxAt[from[i]] = false;
+		walkNanos = System.nanoTime() - begin;
+		if (walked[worker] != walkStamp)
+			return null;
+		char key = Solver.dirChar(grid, push);
+		int count = 0;
+		for (int cell = worker; cell != start; cell = came[cell]) {
+			char step = Solver.dirChar(grid, came[cell] - cell);
+			if (count > 0 && step != key)
+				return key + (count > 1 ? Integer.toString(count) : "");
+			key = step;
+			count++;
+		}
+		if (count > 0 && key != Solver.dirChar(grid, push))
+			return key + (count > 1 ? Integer.toString(count) : "");
+		return key + (count > 0 ? Integer.toString(count + 1) : "");
+	}
+
+	/**
+	 * Prints the hint for the current board.
+	 */
+	public void printHint() {
+		Hint hint = hint(Config.HINT_MILLIS);
+		if (hint.status == DEADLOCK)
+			System.out.println("Warning: this position is a deadlock, the level can no longer be solved.");
+		else if (hint.status == BUSY)
+			System.out.println("Hint: still looking at the board, ask again in a moment.");
+		else if (hint.move == null)
+			System.out.println("Hint: every box is already on a goal.");
+		else if (hint.status == SOLUTION)
+			System.out.println("Hint: " + hint.move);
+		else
+			System.out.println("Hint: " + hint.move + " (best guess, ask again for a better one)");
+	}
+
+	/**
+	 * Stops the background work if it is still running.
+	 */
+	public void close() {
+		closed = true;
+		synchronized (follow) {
+			follow.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,356 @@
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * LevelGenerator: Builds large sets of new Sokoban levels that can be loaded by
+ * the game with loadLevels(). Every level comes from a seed, so running the
+ * generator again with the same arguments writes exactly the same file.
+ *
+ * A level is made in three steps. First the room is built out of small 3x3
+ * templates. Then the boxes are put on the goals (the solved level) and the
+ * game is played backwards: the worker pulls boxes away from the goals, using a
+ * breadth first search over pulls. The position that needs the most pulls to
+ * reach becomes the start of the level, and because the search goes one pull
+ * at a time that number is also the fewest pushes needed to solve it. Levels
+ * that do not pass checkLevel() in Sokoban.java are thrown away.
+ *
+ * Levels are made on every core at once but written in order, each one after
+ * a comment line with its seed and difficulty, for example:
+ *
+ * <pre>
+ * ; level 3 task=4 seed=42 boxes=3 pushes=17 states=5120
+ * </pre>
+ *
+ * The level number is the one loadLevels() gives the level. A level that could
+ * not be made is skipped, so the task that made a level (which picks its
+ * seeds) can be higher than its number.
+ *
+ * Usage: java LevelGenerator count [seed] [rows] [cols] [boxes] [minPushes]
+ * [outFile]
+ *
+ */
+public class LevelGenerator {
+
+	public static final int DEFAULT_ROWS = 9; // rows of the room, without the outer walls
+	public static final int DEFAULT_COLS = 9; // columns of the room, without the outer walls
+	public static final int DEFAULT_BOXES = 3; // boxes (and goals) per level
+	public static final int MAX_STATES = 200000; // positions the backwards search may visit
+	public static final int MAX_ATTEMPTS = 50; // rooms to try before giving up on a level
+
+	/**
+	 * The room templates. '#' is a wall and ' ' is floor. Each template is
+	 * rotated and mirrored at random when it is placed.
+	 */
+	private static final String[][] TEMPLATES = { { "   ", "   ", "   " }, { "#  ", "   ", "   " },
+			{ "## ", "   ", "   " }, { "###", "   ", "   " }, { "#  ", "#  ", "   " }, { "#  ", "   ", "  #" },
+			{ "#  ", "   ", "#  " }, { " # ", "   ", "   " }, { "   ", " # ", "   " }, { "## ", "#  ", "   " },
+			{ "# #", "   ", "   " }, { " # ", " # ", "   " } };
+
+	/**
+	 * The difficulty information kept for every generated level.
+	 */
+	public static class Generated {
+		public final int index; // the task that made the level, see levelSeed()
+		public final long seed; // seed that produced the level
+		public final LevelGrid level; // the level itself
+		public final int pushes; // fewest pushes needed to solve the level
+		public final int states; // positions visited by the backwards search
+
+		public Generated(int index, long seed, LevelGrid level, int pushes, int states) {
+			this.index = index;
+			this.seed = seed;
+			this.level = level;
+			this.pushes = pushes;
+			this.states = states;
+		}
+
+		/**
+		 * @param number the number of the level in the output
+		 * @return the comment line written above the level
+		 */
+		public String header(int number) {
+			return "; level " + number + " task=" + index + " seed=" + seed + " boxes=" + level.boxes.length + " pushes=" + pushes
+					+ " states=" + states;
+		}
+	}
+
+	/**
+	 * Works out the seed of one attempt at one level. Mixing the numbers this way
+	 * keeps neighbouring levels from getting similar random numbers.
+	 *
+	 * @param seed    the seed of the whole run
+	 * @param index   the number of the level
+	 * @param attempt the number of the attempt
+	 * @return the seed for that attempt
+	 */
+	public static long levelSeed(long seed, int index, int attempt) {
+		long z = seed + 0x9E3779B97F4A7C15L * (index * (long) MAX_ATTEMPTS + attempt + 1);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Builds the walls of a room. Algorithm: the room is split into 3x3 blocks and
+	 * each block is stamped with a random template, turned and flipped at random.
+	 * Afterwards only the biggest connected area of floor is kept, everything else
+	 * becomes wall.
+	 *
+	 * @param rand random numbers for this level
+	 * @param rows rows of the room, without the outer walls
+	 * @param cols columns of the room, without the outer walls
+	 * @return true for every wall cell, using LevelGrid's layout
+	 */
+	public static boolean[] buildRoom(Random rand, int rows, int cols) {
+		int width = cols + 2;
+		boolean[] walls = new boolean[(rows + 2) * width];
+		Arrays.fill(walls, true);
+		for (int bi = 0; bi < rows; bi += 3) {
+			for (int bj = 0; bj < cols; bj += 3) {
+				String[] template = TEMPLATES[rand.nextInt(TEMPLATES.length)];
+				int turns = rand.nextInt(4);
+				boolean flip = rand.nextBoolean();
+				for (int i = 0; i < 3; i++) {
+					for (int j = 0; j < 3; j++) {
+						int r = i, c = flip ? 2 - j : j;
+						for (int t = 0; t < turns; t++) {
+							int old = r;
+							r = c;
+							c = 2 - old;
+						}
+						if (bi + i < rows && bj + j < cols)
+							walls[(bi + i + 1) * width + bj + j + 1] = template[r].charAt(c) == Config.WALL_CHAR;
+					}
+				}
+			}
+		}
+		// keep only the biggest area of floor
+		boolean[] noBoxes = new boolean[walls.length];
+		LevelGrid room = new LevelGrid(rows + 2, width, walls, new boolean[walls.length], new int[0], -1);
+		boolean[] best = null;
+		int bestSize = 0;
+		boolean[] done = new boolean[walls.length];
+		for (int cell = 0; cell < walls.length; cell++) {
+			if (walls[cell] || done[cell])
+				continue;
+			boolean[] area = room.reachable(noBoxes, cell);
+			int size = 0;
+			for (int k = 0; k < area.length; k++) {
+				if (area[k]) {
+					done[k] = true;
+					size++;
+				}
+			}
+			if (size > bestSize) {
+				best = area;
+				bestSize = size;
+			}
+		}
+		for (int cell = 0; cell < walls.length; cell++)
+			walls[cell] = best == null || !best[cell];
+		return walls;
+	}
+
+	/**
+	 * Plays the solved level backwards to find a hard starting position.
+	 * Algorithm: a breadth first search where one step is one pull. The search
+	 * starts from every area the worker could be in with all the boxes on their
+	 * goals. A pull needs the worker next to a box and a free cell behind the
+	 * worker; the box moves onto the worker's cell and the worker steps back. The
+	 * search stops when it runs out of positions or reaches maxStates, and the
+	 * last layer it reached holds the positions furthest from being solved.
+	 *
+	 * @param solved   the level with every box on a goal
+	 * @param maxStates the most positions the search may visit
+	 * @param index    the number of the level
+	 * @param seed     the seed of the attempt
+	 * @return the generated level, or null when no box could be moved
+	 */
+	public static Generated reversePlay(LevelGrid solved, int maxStates, int index, long seed) {
+		HashSet<String> seen = new HashSet<String>();
+		ArrayList<String> layer = new ArrayList<String>();
+		boolean[] boxAt = solved.boxMap(solved.boxes);
+		boolean[] covered = new boolean[boxAt.length];
+		for (int cell = 0; cell < boxAt.length; cell++) {
+			if (solved.walls[cell] || boxAt[cell] || covered[cell])
+				continue;
+			boolean[] reach = solved.reachable(boxAt, cell);
+			for (int k = 0; k < reach.length; k++)
+				covered[k] |= reach[k];
+			String key = LevelGrid.key(solved.boxes, LevelGrid.normalize(reach));
+			if (seen.add(key))
+				layer.add(key);
+		}
+		int depth = 0;
+		ArrayList<String> last = layer;
+		while (!layer.isEmpty() && seen.size() < maxStates) {
+			ArrayList<String> next = new ArrayList<String>();
+			for (String key : layer) {
+				int[] boxCells = LevelGrid.keyBoxes(key);
+				boxAt = solved.boxMap(boxCells);
+				boolean[] reach = solved.reachable(boxAt, LevelGrid.keyWorker(key));
+				for (int b = 0; b < boxCells.length; b++) {
+					for (int d : solved.dirs) {
+						int stand = boxCells[b] + d;
+						int back = stand + d;
+						if (!reach[stand] || solved.walls[back] || boxAt[back])
+							continue;
+						int[] moved = boxCells.clone();
+						moved[b] = stand;
+						Arrays.sort(moved);
+						boxAt[boxCells[b]] = false;
+						boxAt[stand] = true;
+						String nextKey = LevelGrid.key(moved, LevelGrid.normalize(solved.reachable(boxAt, back)));
+						boxAt[stand] = false;
+						boxAt[boxCells[b]] = true;
+						if (seen.add(nextKey))
+							next.add(nextKey);
+					}
+				}
+			}
+			if (next.isEmpty())
+				break;
+			depth++;
+			last = next;
+			layer = next;
+		}
+		if (depth == 0)
+			return null;
+		// prefer the position with the fewest boxes already on goals
+		String pick = last.get(0);
+		int pickOnGoals = Integer.MAX_VALUE;
+		for (String key : last) {
+			int onGoals = solved.boxesOnGoals(LevelGrid.keyBoxes(key));
+			if (onGoals < pickOnGoals) {
+				pick = key;
+				pickOnGoals = onGoals;
+			}
+		}
+		LevelGrid start = solved.withPosition(LevelGrid.keyBoxes(pick), LevelGrid.keyWorker(pick));
+		return new Generated(index, seed, start, depth, seen.size());
+	}
+
+	/**
+	 * Makes one level. Algorithm: up to MAX_ATTEMPTS rooms are tried. For each
+	 * room the goals are picked at random among the floor cells, the boxes are
+	 * put on them and reversePlay() finds the starting position. The first level
+	 * that needs at least minPushes pushes and passes checkLevel() is kept.
+	 *
+	 * @param seed      the seed of the whole run
+	 * @param index     the number of the level
+	 * @param rows      rows of the room, without the outer walls
+	 * @param cols      columns of the room, without the outer walls
+	 * @param boxCount  number of boxes and goals
+	 * @param minPushes the fewest pushes a kept level must need
+	 * @return the level, or null if no attempt worked
+	 */
+	public static Generated generate(long seed, int index, int rows, int cols, int boxCount, int minPushes) {
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			long attemptSeed = levelSeed(seed, index, attempt);
+			Random rand = new Random(attemptSeed);
+			boolean[] walls = buildRoom(rand, rows, cols);
+			ArrayList<Integer> floor = new ArrayList<Integer>();
+			for (int cell = 0; cell < walls.length; cell++)
+				if (!walls[cell])
+					floor.add(cell);
+			if (floor.size() < boxCount * 3 + 1)
+				continue;
+			Collections.shuffle(floor, rand);
+			boolean[] goals = new boolean[walls.length];
+			int[] boxCells = new int[boxCount];
+			for (int i = 0; i < boxCount; i++) {
+				boxCells[i] = floor.get(i);
+				goals[boxCells[i]] = true;
+			}
+			LevelGrid solved = new LevelGrid(rows + 2, cols + 2, walls, goals, boxCells, -1);
+			Generated made = reversePlay(solved, MAX_STATES, index, attemptSeed);
+			if (made == null || made.pushes < minPushes)
+				continue;
+			ArrayList<char[][]> levels = new ArrayList<char[][]>();
+			ArrayList<int[]> goalLists = new ArrayList<int[]>();
+			levels.add(made.level.toLevel());
+			goalLists.add(made.level.goalList());
+			if (Sokoban.checkLevel(0, levels, goalLists) == 1)
+				return made;
+		}
+		return null;
+	}
+
+	/**
+	 * Makes count levels on every core and writes them in order. Algorithm: each
+	 * level is its own task with its own Random, so the threads share nothing
+	 * and the result does not depend on how the tasks are scheduled. Only a few
+	 * tasks per thread are queued ahead of the writer, so the levels are streamed
+	 * out instead of all being kept in memory.
+	 *
+	 * @param out       where to write the levels
+	 * @param count     number of levels to make
+	 * @param seed      seed of the whole run
+	 * @param rows      rows of each room, without the outer walls
+	 * @param cols      columns of each room, without the outer walls
+	 * @param boxCount  boxes per level
+	 * @param minPushes the fewest pushes a level must need
+	 * @return the number of levels written
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws ExecutionException   if making a level failed
+	 */
+	public static int generateAll(PrintWriter out, int count, long seed, int rows, int cols, int boxCount,
+			int minPushes) throws InterruptedException, ExecutionException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Generated>> pending = new ArrayDeque<Future<Generated>>();
+		int written = 0;
+		try {
+			int next = 0;
+			while (next < count || !pending.isEmpty()) {
+				while (next < count && pending.size() < threads * 4) {
+					final int index = next++;
+					pending.add(pool.submit(() -> generate(seed, index, rows, cols, boxCount, minPushes)));
+				}
+				Generated made = pending.poll().get();
+				if (made != null) {
+					out.println(made.header(written));
+					for (String line : made.level.toText())
+						out.println(line);
+					out.println();
+					out.flush();
+					written++;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return written;
+	}
+
+	/**
+	 * Reads the arguments and writes the levels to the output file, or to the
+	 * screen when no file is given.
+	 *
+	 * @param args count [seed] [rows] [cols] [boxes] [minPushes] [outFile]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: java LevelGenerator count [seed] [rows] [cols] [boxes] [minPushes] [outFile]");
+			return;
+		}
+		int count = Integer.parseInt(args[0]);
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		int rows = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ROWS;
+		int cols = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_COLS;
+		int boxes = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_BOXES;
+		int minPushes = args.length > 5 ? Integer.parseInt(args[5]) : boxes;
+		try (PrintWriter out = args.length > 6 ? new PrintWriter(new File(args[6])) : new PrintWriter(System.out)) {
+			int written = generateAll(out, count, seed, rows, cols, boxes, minPushes);
+			if (written < count)
+				System.err.println("Only " + written + " of " + count + " levels could be generated.");
+		} catch (FileNotFoundException notFound) {
+			System.out.println("Error writing level file: " + args[6]);
+		} catch (Exception e) {
+			System.out.println("Error while generating levels.");
+			e.printStackTrace();
+		}
+	}
+}
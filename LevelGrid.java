@@ -0,0 +1,469 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * LevelGrid: A compact copy of a Sokoban level for the tools that need to look
+ * at a lot of positions quickly (generating, solving and analysing levels).
+ * Instead of a char[][] the cells are stored row by row in one flat array and
+ * the level is surrounded by an extra ring of walls, so a neighbour of any
+ * floor cell is always just index + one of the values in dirs and never needs
+ * a bounds check. Cells that are past the end of a short row count as walls,
+ * the same way movesAreGood() in Sokoban.java treats them.
+ *
+ * A position is the sorted array of box cells plus the cell of the worker.
+ *
+ */
+public class LevelGrid {
+
+	public final int rows; // number of rows, including the ring of walls
+	public final int cols; // number of columns, including the ring of walls
+	public final boolean[] walls; // true when the cell is a wall
+	public final boolean[] goals; // true when the cell is a goal
+	public final int[] boxes; // cells holding a box, sorted
+	public final int worker; // cell holding the worker
+	public final int[] dirs; // offsets for up, down, left and right
+
+	/**
+	 * Creates a level from cells that are already flattened.
+	 *
+	 * @param rows   number of rows, including the ring of walls
+	 * @param cols   number of columns, including the ring of walls
+	 * @param walls  true for every wall cell
+	 * @param goals  true for every goal cell
+	 * @param boxes  the cells holding a box (in any order)
+	 * @param worker the cell holding the worker
+	 */
+	public LevelGrid(int rows, int cols, boolean[] walls, boolean[] goals, int[] boxes, int worker) {
+		this.rows = rows;
+		this.cols = cols;
+		this.walls = walls;
+		this.goals = goals;
+		this.boxes = boxes.clone();
+		Arrays.sort(this.boxes);
+		this.worker = worker;
+		this.dirs = new int[] { -cols, cols, -1, 1 };
+	}
+
+	/**
+	 * Reads the character of a cell from wherever the board is kept.
+	 */
+	private interface Cells {
+		char get(int row, int col);
+	}
+
+	/**
+	 * Builds a LevelGrid from a level the way it is stored in Config.LEVELS and
+	 * Config.GOALS.
+	 *
+	 * @param level the level from Config.LEVELS (or loaded by loadLevels)
+	 * @param goal  the goal list for the level, row/column pairs
+	 * @return the flattened level
+	 */
+	public static LevelGrid fromLevel(char[][] level, int[] goal) {
+		int[] rowLength = new int[level.length];
+		for (int i = 0; i < level.length; i++)
+			rowLength[i] = level[i].length;
+		return build(rowLength, (row, col) -> level[row][col], goal);
+	}
+
+	/**
+	 * Builds a LevelGrid from the board of a game, without copying the board
+	 * into a char[][] first.
+	 *
+	 * @param board the game board
+	 * @param goal  the goal list for the level, row/column pairs
+	 * @return the flattened level
+	 */
+	public static LevelGrid fromBoard(ChunkedBoard board, int[] goal) {
+		int[] rowLength = new int[board.rows()];
+		for (int i = 0; i < rowLength.length; i++)
+			rowLength[i] = board.rowLength(i);
+		return build(rowLength, board::get, goal);
+	}
+
+	/**
+	 * Algorithm: every cell starts out as a wall, then the cells of the level are
+	 * copied in one row and one column away from the edge. Goals are taken both
+	 * from the goal list and from any goal characters left on the board.
+	 */
+	private static LevelGrid build(int[] rowLength, Cells level, int[] goal) {
+		int width = 0;
+		for (int length : rowLength)
+			width = Math.max(width, length);
+		int rows = rowLength.length + 2;
+		int cols = width + 2;
+		boolean[] walls = new boolean[rows * cols];
+		boolean[] goals = new boolean[rows * cols];
+		Arrays.fill(walls, true);
+		ArrayList<Integer> boxList = new ArrayList<Integer>();
+		int worker = -1;
+		for (int i = 0; i < rowLength.length; i++) {
+			for (int j = 0; j < rowLength[i]; j++) {
+				int cell = (i + 1) * cols + j + 1;
+				char ch = level.get(i, j);
+				walls[cell] = ch == Config.WALL_CHAR;
+				if (ch == Config.BOX_CHAR || ch == Config.BOX_GOAL_CHAR)
+					boxList.add(cell);
+				if (ch == Config.WORKER_CHAR || ch == Config.WORK_GOAL_CHAR)
+					worker = cell;
+				if (ch == Config.GOAL_CHAR || ch == Config.BOX_GOAL_CHAR || ch == Config.WORK_GOAL_CHAR)
+					goals[cell] = true;
+			}
+		}
+		for (int i = 0; goal != null && i < goal.length - 1; i += 2) {
+			if (goal[i] >= 0 && goal[i] < rowLength.length && goal[i + 1] >= 0 && goal[i + 1] < rowLength[goal[i]])
+				goals[(goal[i] + 1) * cols + goal[i + 1] + 1] = true;
+		}
+		int[] boxes = new int[boxList.size()];
+		for (int i = 0; i < boxes.length; i++)
+			boxes[i] = boxList.get(i);
+		return new LevelGrid(rows, cols, walls, goals, boxes, worker);
+	}
+
+	/**
+	 * Returns a copy of this level with the boxes and the worker somewhere else.
+	 *
+	 * @param newBoxes  the cells holding a box
+	 * @param newWorker the cell holding the worker
+	 * @return a level sharing the walls and goals of this one
+	 */
+	public LevelGrid withPosition(int[] newBoxes, int newWorker) {
+		return new LevelGrid(rows, cols, walls, goals, newBoxes, newWorker);
+	}
+
+	/**
+	 * @param cell a cell index
+	 * @return the row of the cell on the char[][] board (without the ring)
+	 */
+	public int rowOf(int cell) {
+		return cell / cols - 1;
+	}
+
+	/**
+	 * @param cell a cell index
+	 * @return the column of the cell on the char[][] board (without the ring)
+	 */
+	public int colOf(int cell) {
+		return cell % cols - 1;
+	}
+
+	/**
+	 * @param row a row on the char[][] board (without the ring)
+	 * @param col a column on the char[][] board (without the ring)
+	 * @return the cell index
+	 */
+	public int cellOf(int row, int col) {
+		return (row + 1) * cols + col + 1;
+	}
+
+	/**
+	 * @return the number of goal cells
+	 */
+	public int goalCount() {
+		int count = 0;
+		for (boolean goal : goals)
+			if (goal)
+				count++;
+		return count;
+	}
+
+	/**
+	 * @param boxCells the cells holding a box
+	 * @return the number of boxes sitting on a goal
+	 */
+	public int boxesOnGoals(int[] boxCells) {
+		int count = 0;
+		for (int box : boxCells)
+			if (goals[box])
+				count++;
+		return count;
+	}
+
+	/**
+	 * @param boxCells the cells holding a box
+	 * @return a board sized array that is true for every cell holding a box
+	 */
+	public boolean[] boxMap(int[] boxCells) {
+		boolean[] boxAt = new boolean[walls.length];
+		for (int box : boxCells)
+			boxAt[box] = true;
+		return boxAt;
+	}
+
+	/**
+	 * Finds every cell the worker can walk to without pushing a box. Algorithm:
+	 * a flood fill from the worker that stops at walls and boxes, using an int
+	 * array as the stack so it does not create any objects per cell.
+	 *
+	 * @param boxAt true for every cell holding a box
+	 * @param from  the cell of the worker
+	 * @return true for every reachable cell
+	 */
+	public boolean[] reachable(boolean[] boxAt, int from) {
+		boolean[] seen = new boolean[walls.length];
+		int[] stack = new int[walls.length];
+		int top = 0;
+		stack[top++] = from;
+		seen[from] = true;
+		while (top > 0) {
+			int cell = stack[--top];
+			for (int d : dirs) {
+				int next = cell + d;
+				if (!seen[next] && !walls[next] && !boxAt[next]) {
+					seen[next] = true;
+					stack[top++] = next;
+				}
+			}
+		}
+		return seen;
+	}
+
+	/**
+	 * Same as reachable() above, but with arrays from the caller so a search can
+	 * call it for every position without allocating or clearing anything. A
+	 * reachable cell gets mark[cell] == stamp; the caller passes a new stamp each
+	 * time, so the marks left by earlier calls do not count.
+	 *
+	 * @param boxAt true for every cell holding a box
+	 * @param from  the cell of the worker
+	 * @param mark  as long as walls, never holding stamp yet
+	 * @param stamp the mark of this call
+	 * @param stack as long as walls
+	 * @return the smallest reachable cell, the normalized worker (see normalize())
+	 */
+	public int reachable(boolean[] boxAt, int from, int[] mark, int stamp, int[] stack) {
+		int smallest = from;
+		int top = 0;
+		stack[top++] = from;
+		mark[from] = stamp;
+		while (top > 0) {
+			int cell = stack[--top];
+			if (cell < smallest)
+				smallest = cell;
+			for (int d : dirs) {
+				int next = cell + d;
+				if (mark[next] != stamp && !walls[next] && !boxAt[next]) {
+					mark[next] = stamp;
+					stack[top++] = next;
+				}
+			}
+		}
+		return smallest;
+	}
+
+	/**
+	 * Finds the dead squares of the level: floor cells where a box can never be
+	 * pushed onto any goal again, even with no other boxes in the way.
+	 * Algorithm: starting from the goals, a box is pulled backwards in every
+	 * direction where there is room for both the box and the worker. Every floor
+	 * cell the box can be pulled to is alive, the rest are dead.
+	 *
+	 * @return true for every dead floor cell
+	 */
+	public boolean[] deadSquares() {
+		boolean[] alive = new boolean[walls.length];
+		int[] stack = new int[walls.length];
+		int top = 0;
+		for (int cell = 0; cell < goals.length; cell++) {
+			if (goals[cell] && !walls[cell]) {
+				alive[cell] = true;
+				stack[top++] = cell;
+			}
+		}
+		while (top > 0) {
+			int cell = stack[--top];
+			for (int d : dirs) {
+				int from = cell - d;
+				if (!alive[from] && !walls[from] && !walls[from - d]) {
+					alive[from] = true;
+					stack[top++] = from;
+				}
+			}
+		}
+		boolean[] dead = new boolean[walls.length];
+		for (int cell = 0; cell < walls.length; cell++)
+			dead[cell] = !walls[cell] && !alive[cell];
+		return dead;
+	}
+
+	/**
+	 * Works out how many pushes each cell is from the nearest goal for a box
+	 * alone on the level. It is the same backwards pull as deadSquares(), done
+	 * as a breadth first search so the distances come out in order.
+	 *
+	 * @return the pushes from each cell to a goal, Integer.MAX_VALUE for walls
+	 *         and dead squares
+	 */
+	public int[] goalDistances() {
+		int[] dist = new int[walls.length];
+		Arrays.fill(dist, Integer.MAX_VALUE);
+		int[] queue = new int[walls.length];
+		int head = 0, tail = 0;
+		for (int cell = 0; cell < goals.length; cell++) {
+			if (goals[cell] && !walls[cell]) {
+				dist[cell] = 0;
+				queue[tail++] = cell;
+			}
+		}
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d : dirs) {
+				int from = cell - d;
+				if (dist[from] == Integer.MAX_VALUE && !walls[from] && !walls[from - d]) {
+					dist[from] = dist[cell] + 1;
+					queue[tail++] = from;
+				}
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * The worker can walk anywhere inside its area without changing the position,
+	 * so positions are compared using the smallest reachable cell instead of the
+	 * cell the worker is actually on.
+	 *
+	 * @param reach the cells reachable by the worker
+	 * @return the smallest reachable cell
+	 */
+	public static int normalize(boolean[] reach) {
+		for (int i = 0; i < reach.length; i++)
+			if (reach[i])
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Packs a position into a String so it can be used in a HashSet or HashMap.
+	 * Every box cell and then the worker cell become one char each when the cell
+	 * is below 32768, which covers most levels and keeps the key small. Bigger
+	 * cells take two chars, the first with its top bit set, so no two positions
+	 * share a key on any size of board.
+	 *
+	 * @param boxCells the sorted cells holding a box
+	 * @param worker   the (normalized) cell of the worker
+	 * @return the key for the position
+	 */
+	public static String key(int[] boxCells, int worker) {
+		StringBuilder key = new StringBuilder(boxCells.length + 1);
+		for (int cell : boxCells)
+			appendCell(key, cell);
+		appendCell(key, worker);
+		return key.toString();
+	}
+
+	private static void appendCell(StringBuilder key, int cell) {
+		if (cell < 0x8000) {
+			key.append((char) cell);
+		} else {
+			key.append((char) (0x8000 | (cell >>> 15)));
+			key.append((char) (cell & 0x7FFF));
+		}
+	}
+
+	/**
+	 * @param key a key made by key()
+	 * @return every cell stored in the key, the worker last
+	 */
+	private static int[] keyCells(String key) {
+		int[] cells = new int[key.length()];
+		int count = 0;
+		for (int i = 0; i < key.length(); i++) {
+			char ch = key.charAt(i);
+			cells[count++] = ch < 0x8000 ? ch : ((ch & 0x7FFF) << 15) | key.charAt(++i);
+		}
+		return Arrays.copyOf(cells, count);
+	}
+
+	/**
+	 * @param key a key made by key()
+	 * @return the box cells stored in the key
+	 */
+	public static int[] keyBoxes(String key) {
+		int[] cells = keyCells(key);
+		return Arrays.copyOf(cells, cells.length - 1);
+	}
+
+	/**
+	 * @param key a key made by key()
+	 * @return the worker cell stored in the key
+	 */
+	public static int keyWorker(String key) {
+		int last = key.length() - 1;
+		// only the first char of a two char cell has its top bit set
+		if (last > 0 && key.charAt(last - 1) >= 0x8000)
+			return ((key.charAt(last - 1) & 0x7FFF) << 15) | key.charAt(last);
+		return key.charAt(last);
+	}
+
+	/**
+	 * Turns the level back into the char[][] form used by Config.LEVELS (the ring
+	 * of walls is dropped, boxes on goals are stored as boxes and the worker on a
+	 * goal as a worker, like loadLevels() does).
+	 *
+	 * @return the board of the level
+	 */
+	public char[][] toLevel() {
+		boolean[] boxAt = boxMap(boxes);
+		char[][] level = new char[rows - 2][cols - 2];
+		for (int i = 0; i < rows - 2; i++) {
+			for (int j = 0; j < cols - 2; j++) {
+				int cell = cellOf(i, j);
+				if (walls[cell])
+					level[i][j] = Config.WALL_CHAR;
+				else if (boxAt[cell])
+					level[i][j] = Config.BOX_CHAR;
+				else if (cell == worker)
+					level[i][j] = Config.WORKER_CHAR;
+				else if (goals[cell])
+					level[i][j] = Config.GOAL_CHAR;
+				else
+					level[i][j] = Config.EMPTY_CHAR;
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * @return the goal list of the level in the form used by Config.GOALS
+	 */
+	public int[] goalList() {
+		int[] list = new int[goalCount() * 2];
+		int k = 0;
+		for (int cell = 0; cell < goals.length; cell++) {
+			if (goals[cell]) {
+				list[k++] = rowOf(cell);
+				list[k++] = colOf(cell);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Writes the level in the text format read by loadLevels(), including the
+	 * ring of walls so that every line contains a wall character.
+	 *
+	 * @return one String per row of the level
+	 */
+	public String[] toText() {
+		boolean[] boxAt = boxMap(boxes);
+		String[] lines = new String[rows];
+		for (int i = 0; i < rows; i++) {
+			char[] line = new char[cols];
+			for (int j = 0; j < cols; j++) {
+				int cell = i * cols + j;
+				if (walls[cell])
+					line[j] = Config.WALL_CHAR;
+				else if (boxAt[cell])
+					line[j] = goals[cell] ? Config.BOX_GOAL_CHAR : Config.BOX_CHAR;
+				else if (cell == worker)
+					line[j] = goals[cell] ? Config.WORK_GOAL_CHAR : Config.WORKER_CHAR;
+				else
+					line[j] = goals[cell] ? Config.GOAL_CHAR : Config.EMPTY_CHAR;
+			}
+			lines[i] = new String(line);
+		}
+		return lines;
+	}
+}
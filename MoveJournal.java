@@ -0,0 +1,244 @@
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * MoveJournal: Writes every move of the game being played to a journal file so
+ * the game can be picked up again after a crash or a dropped session. The file
+ * starts with a line naming the level and its hash (see SolutionCache), then
+ * holds one move per line in the same format as the move files.
+ *
+ * The game only puts the move on a queue; a background thread writes the
+ * queued moves to the end of the file and forces them to disk every
+ * Config.JOURNAL_SYNC_MOVES moves or Config.JOURNAL_SYNC_MILLIS milliseconds,
+ * whichever comes first, so playing never waits for the disk. A line is only
+ * counted when its newline made it to the file, so a line cut short by a crash
+ * is dropped when the journal is read back.
+ *
+ * If the journal cannot be written the game goes on without it.
+ *
+ */
+public class MoveJournal implements Closeable {
+
+	private static final String END = "\u0000"; // tells the writer thread to stop
+
+	/**
+	 * A game read back from a journal file.
+	 */
+	public static class Saved {
+		public final int level; // the level being played
+		public final String hash; // hash of that level
+		public final ArrayList<String> moves; // the moves made so far
+
+		public Saved(int level, String hash, ArrayList<String> moves) {
+			this.level = level;
+			this.hash = hash;
+			this.moves = moves;
+		}
+	}
+
+	private final File file;
+	private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+	private FileChannel channel;
+	private Thread writer;
+	private volatile boolean failed; // true once the writer thread stopped on an error
+	private Thread shutdownHook;
+
+	private MoveJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Starts a new journal for a level, replacing any old one.
+	 *
+	 * @param file  the journal file
+	 * @param level the level being played
+	 * @param hash  the hash of the level
+	 * @return the journal
+	 */
+	public static MoveJournal start(File file, int level, String hash) {
+		MoveJournal journal = new MoveJournal(file);
+		try {
+			journal.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			journal.write(Arrays.asList("level " + level + " " + hash));
+			journal.channel.force(false);
+			journal.startWriter();
+		} catch (IOException e) {
+			System.out.println("Error opening move journal: " + file);
+			journal.channel = null;
+		}
+		return journal;
+	}
+
+	/**
+	 * Opens an existing journal to add more moves to it. A line cut short at the
+	 * end of the file is cut off first.
+	 *
+	 * @param file the journal file
+	 * @return the journal
+	 */
+	public static MoveJournal resume(File file) {
+		MoveJournal journal = new MoveJournal(file);
+		try {
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			int end = bytes.length;
+			while (end > 0 && bytes[end - 1] != '\n')
+				end--;
+			journal.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+			journal.channel.truncate(end);
+			journal.channel.position(end);
+			journal.startWriter();
+		} catch (IOException e) {
+			System.out.println("Error opening move journal: " + file);
+			journal.channel = null;
+		}
+		return journal;
+	}
+
+	/**
+	 * Reads a journal file back.
+	 *
+	 * @param file the journal file
+	 * @return the saved game, or null if there is no usable journal
+	 */
+	public static Saved read(File file) {
+		if (!file.exists())
+			return null;
+		String text;
+		try {
+			text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+		// only lines that end with a newline were fully written
+		String[] lines = text.substring(0, text.lastIndexOf('\n') + 1).split("\n");
+		if (lines.length < 1 || !lines[0].startsWith("level "))
+			return null;
+		try (Scanner header = new Scanner(lines[0].substring(6))) {
+			if (!header.hasNextInt())
+				return null;
+			int level = header.nextInt();
+			String hash = header.hasNext() ? header.next() : "";
+			ArrayList<String> moves = new ArrayList<String>();
+			for (int i = 1; i < lines.length; i++)
+				if (!lines[i].isEmpty())
+					moves.add(lines[i]);
+			return new Saved(level, hash, moves);
+		}
+	}
+
+	/**
+	 * Starts the background thread. Algorithm: the thread waits for a move (at
+	 * most JOURNAL_SYNC_MILLIS), then takes everything else that is queued and
+	 * writes it all with one write. The file is forced to disk once enough moves
+	 * or enough time have gone by since the last time. A shutdown hook drains the
+	 * queue if the program ends without closing the journal.
+	 */
+	private void startWriter() {
+		writer = new Thread(() -> {
+			ArrayList<String> batch = new ArrayList<String>();
+			int unsynced = 0;
+			long lastSync = System.currentTimeMillis();
+			boolean running = true;
+			while (running) {
+				try {
+					String move = queue.poll(Config.JOURNAL_SYNC_MILLIS, TimeUnit.MILLISECONDS);
+					if (move != null) {
+						batch.add(move);
+						queue.drainTo(batch);
+					}
+					running = !batch.remove(END);
+					if (!batch.isEmpty()) {
+						write(batch);
+						unsynced += batch.size();
+						batch.clear();
+					}
+					long now = System.currentTimeMillis();
+					if (unsynced > 0 && (unsynced >= Config.JOURNAL_SYNC_MOVES || !running
+							|| now - lastSync >= Config.JOURNAL_SYNC_MILLIS)) {
+						channel.force(false);
+						unsynced = 0;
+						lastSync = now;
+					}
+				} catch (InterruptedException e) {
+					running = false;
+				} catch (IOException e) {
+					System.out.println("Error writing move journal: " + file);
+					failed = true;
+					queue.clear();
+					running = false;
+				}
+			}
+		}, "move-journal");
+		writer.setDaemon(true);
+		writer.start();
+		shutdownHook = new Thread(this::close);
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Writes lines to the end of the file in one go.
+	 */
+	private void write(List<String> lines) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines)
+			text.append(line).append('\n');
+		ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+	}
+
+	/**
+	 * Adds a move to the journal. This only queues the move, it never waits for
+	 * the file. Once the journal could not be written, moves are no longer
+	 * queued, since nothing would take them off the queue.
+	 *
+	 * @param move the move as typed (or read from a move file)
+	 */
+	public void append(String move) {
+		if (writer != null && !failed)
+			queue.offer(move);
+	}
+
+	/**
+	 * Writes out the queued moves, forces them to disk and closes the file.
+	 */
+	public synchronized void close() {
+		if (writer == null)
+			return;
+		queue.offer(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.out.println("Error closing move journal: " + file);
+		}
+		writer = null;
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// already shutting down
+			}
+		}
+	}
+
+	/**
+	 * Closes the journal and deletes the file, because the game it belongs to is
+	 * over and does not need to be resumed.
+	 */
+	public void finish() {
+		close();
+		file.delete();
+	}
+}
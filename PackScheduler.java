@@ -0,0 +1,334 @@
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * PackScheduler: Solves every level of a level file at once. The levels are
+ * run on a fixed number of threads, and the searches running at the same time
+ * must fit in a memory limit. Every search is told how many positions it may
+ * keep in memory and stops when it has that many, so the limit holds no
+ * matter how the search goes.
+ *
+ * Every level first gets a small budget of nodes and time. Levels that run
+ * out of budget are tried again with BUDGET_GROWTH times more, after every
+ * level of the earlier round has had its turn, so cheap levels are finished
+ * first and the big budgets go to the levels that need them. Within a round the
+ * smallest levels go first. A result line is printed for every level as soon
+ * as it is done, and solutions go into the solution cache.
+ *
+ * Usage: java PackScheduler levelFile [threads] [memoryMB] [nodes] [millis]
+ * [rounds]
+ *
+ */
+public class PackScheduler {
+
+	public static final long DEFAULT_NODES = 100000; // node budget of the first round
+	public static final long DEFAULT_MILLIS = 2000; // time budget of the first round
+	public static final int DEFAULT_ROUNDS = 4; // rounds before a level is given up on
+	public static final int BUDGET_GROWTH = 4; // how much the budget grows each round
+	public static final long STATES_PER_NODE = 4; // positions kept per position expanded, roughly
+	public static final int INVALID = -2; // status of a level that does not pass checkLevel()
+	public static final int FAILED = -3; // status of a level whose search threw an exception
+
+	/**
+	 * The result of one level.
+	 */
+	public static class LevelResult {
+		public final int level; // the number of the level
+		public final int status; // Solver.SOLVED, NO_SOLUTION or OUT_OF_BUDGET, or INVALID or FAILED
+		public final int pushes; // pushes in the solution, -1 if not solved
+		public final int moves; // moves in the solution, -1 if not solved
+		public final long nodes; // positions expanded over every round
+		public final long millis; // time spent over every round
+		public final int rounds; // rounds the level took
+
+		public LevelResult(int level, int status, int pushes, int moves, long nodes, long millis, int rounds) {
+			this.level = level;
+			this.status = status;
+			this.pushes = pushes;
+			this.moves = moves;
+			this.nodes = nodes;
+			this.millis = millis;
+			this.rounds = rounds;
+		}
+
+		/**
+		 * @return the result line printed for the level
+		 */
+		public String line() {
+			String text = "Level " + level + ": ";
+			if (status == INVALID)
+				return text + "not a valid level, skipped";
+			if (status == Solver.SOLVED)
+				text += "solved, " + pushes + " pushes, " + moves + " moves";
+			else if (status == Solver.NO_SOLUTION)
+				text += "no solution";
+			else if (status == FAILED)
+				text += "search failed";
+			else
+				text += "gave up";
+			return text + " (" + millis + " ms, " + nodes + " nodes, round " + rounds + ")";
+		}
+	}
+
+	/**
+	 * One try at one level. Tasks of an earlier round come first, then tasks of
+	 * smaller levels.
+	 */
+	private class Task implements Runnable, Comparable<Task> {
+		final int level;
+		final int round;
+		final long size; // boxes times floor cells, a rough measure of the work
+		final long stateBytes; // memory the search uses per position kept
+		final long nodesSoFar;
+		final long millisSoFar;
+
+		Task(int level, int round, long size, long stateBytes, long nodesSoFar, long millisSoFar) {
+			this.level = level;
+			this.round = round;
+			this.size = size;
+			this.stateBytes = stateBytes;
+			this.nodesSoFar = nodesSoFar;
+			this.millisSoFar = millisSoFar;
+		}
+
+		public int compareTo(Task other) {
+			if (round != other.round)
+				return Integer.compare(round, other.round);
+			return Long.compare(size, other.size);
+		}
+
+		/**
+		 * Runs the task. If it ends with an exception the level is reported as
+		 * FAILED, so run() never waits for it.
+		 */
+		public void run() {
+			boolean finished = false;
+			try {
+				runTask(this);
+				finished = true;
+			} finally {
+				if (!finished)
+					report(new LevelResult(level, FAILED, -1, -1, nodesSoFar, millisSoFar, round));
+			}
+		}
+	}
+
+	private final ArrayList<char[][]> levels;
+	private final ArrayList<int[]> goals;
+	private final long memoryBytes;
+	private final long startNodes;
+	private final long startMillis;
+	private final int rounds;
+	private final SolutionCache cache;
+	private final Semaphore memory; // one permit per kilobyte
+	private final ThreadPoolExecutor pool;
+	private final CountDownLatch done;
+	private final ConcurrentLinkedQueue<LevelResult> results = new ConcurrentLinkedQueue<LevelResult>();
+	private final AtomicLong cpuMillis = new AtomicLong();
+	private final PrintStream out;
+
+	/**
+	 * @param levels      the levels of the pack
+	 * @param goals       the goal lists of the pack
+	 * @param threads     searches run at the same time, at most
+	 * @param memoryBytes memory for all the searches together
+	 * @param startNodes  node budget of the first round
+	 * @param startMillis time budget of the first round
+	 * @param rounds      rounds before a level is given up on
+	 * @param cache       the solution cache, or null to always search
+	 * @param out         where the result lines are printed
+	 */
+	public PackScheduler(ArrayList<char[][]> levels, ArrayList<int[]> goals, int threads, long memoryBytes,
+			long startNodes, long startMillis, int rounds, SolutionCache cache, PrintStream out) {
+		this.levels = levels;
+		this.goals = goals;
+		this.memoryBytes = memoryBytes;
+		this.startNodes = startNodes;
+		this.startMillis = startMillis;
+		this.rounds = rounds;
+		this.cache = cache;
+		this.out = out;
+		this.memory = new Semaphore((int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBytes / 1024)), true);
+		this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>());
+		// with every thread already waiting on the queue, even the first tasks
+		// go through it, so the smallest levels really do start first
+		this.pool.prestartAllCoreThreads();
+		this.done = new CountDownLatch(levels.size());
+	}
+
+	/**
+	 * @param start the budget of the first round
+	 * @param round a round, starting at 1
+	 * @return the budget of that round
+	 */
+	private static long budget(long start, int round) {
+		long budget = start;
+		for (int r = 1; r < round && budget < Long.MAX_VALUE / BUDGET_GROWTH; r++)
+			budget *= BUDGET_GROWTH;
+		return budget;
+	}
+
+	/**
+	 * @param round      a round, starting at 1
+	 * @param stateBytes memory the search uses per position kept
+	 * @return the most positions a search of that round may keep
+	 */
+	private long states(int round, long stateBytes) {
+		long nodes = budget(startNodes, round);
+		return Math.max(1, Math.min(memoryBytes / stateBytes,
+				nodes > Long.MAX_VALUE / STATES_PER_NODE ? Long.MAX_VALUE : nodes * STATES_PER_NODE));
+	}
+
+	/**
+	 * Runs one try at a level. Algorithm: the search may keep STATES_PER_NODE
+	 * positions for each node of its budget, but never more than fit in the
+	 * whole limit. The memory for those positions is taken from the memory
+	 * semaphore first, so searches wait instead of running the program out of
+	 * memory, and the search stops when it has kept that many. The search goes
+	 * through the solution cache. If it runs out of budget and there are rounds
+	 * left, a new task with a bigger budget is queued; otherwise the result is
+	 * reported. A search that stopped on the positions it may keep is not tried
+	 * again once that number has stopped growing, because the next round would
+	 * stop at the same place.
+	 */
+	private void runTask(Task task) {
+		long nodes = budget(startNodes, task.round);
+		long millis = budget(startMillis, task.round);
+		long states = states(task.round, task.stateBytes);
+		int permits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, states * task.stateBytes / 1024));
+		Solver.Result result;
+		try {
+			memory.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			report(new LevelResult(task.level, FAILED, -1, -1, task.nodesSoFar, task.millisSoFar, task.round));
+			return;
+		}
+		ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+		long begin = System.currentTimeMillis();
+		long cpuBegin = cpu.getCurrentThreadCpuTime();
+		try {
+			char[][] level = levels.get(task.level);
+			int[] goal = goals.get(task.level);
+			if (cache != null)
+				result = cache.solve(level, goal, nodes, millis, states);
+			else
+				result = Solver.solve(LevelGrid.fromLevel(level, goal), nodes, millis, states);
+		} catch (IOException e) {
+			result = Solver.solve(LevelGrid.fromLevel(levels.get(task.level), goals.get(task.level)), nodes, millis,
+					states);
+		} catch (OutOfMemoryError e) {
+			// the rest of the program used more than the limit left for it
+			result = new Solver.Result(Solver.OUT_OF_BUDGET, new ArrayList<String>(), -1, 0,
+					System.currentTimeMillis() - begin);
+		} finally {
+			memory.release(permits);
+		}
+		cpuMillis.addAndGet((cpu.getCurrentThreadCpuTime() - cpuBegin) / 1000000);
+		long totalNodes = task.nodesSoFar + result.nodes;
+		long totalMillis = task.millisSoFar + result.millis;
+		boolean stateCapped = result.nodes < nodes && result.millis <= millis;
+		boolean retry = !stateCapped || states(task.round + 1, task.stateBytes) > states;
+		if (result.status == Solver.OUT_OF_BUDGET && task.round < rounds && retry) {
+			pool.execute(new Task(task.level, task.round + 1, task.size, task.stateBytes, totalNodes, totalMillis));
+			return;
+		}
+		report(new LevelResult(task.level, result.status, result.pushes,
+				result.status == Solver.SOLVED ? result.moves.size() : -1, totalNodes, totalMillis, task.round));
+	}
+
+	/**
+	 * Prints the result of a level and counts it as done.
+	 */
+	private void report(LevelResult result) {
+		results.add(result);
+		synchronized (out) {
+			out.println(result.line());
+		}
+		done.countDown();
+	}
+
+	/**
+	 * Solves every level of the pack and waits until all are done. Levels that
+	 * do not pass checkLevel() are reported right away.
+	 *
+	 * @return the results, in the order the levels finished
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public ArrayList<LevelResult> run() throws InterruptedException {
+		for (int i = 0; i < levels.size(); i++) {
+			if (Sokoban.checkLevel(i, levels, goals) < 1) {
+				report(new LevelResult(i, INVALID, -1, -1, 0, 0, 0));
+				continue;
+			}
+			LevelGrid grid = LevelGrid.fromLevel(levels.get(i), goals.get(i));
+			long floor = 0;
+			for (boolean wall : grid.walls)
+				if (!wall)
+					floor++;
+			pool.execute(new Task(i, 1, floor * grid.boxes.length, Solver.bytesPerState(grid), 0, 0));
+		}
+		done.await();
+		pool.shutdown();
+		return new ArrayList<LevelResult>(results);
+	}
+
+	/**
+	 * @return the CPU time spent searching, added up over every thread
+	 */
+	public long cpuMillis() {
+		return cpuMillis.get();
+	}
+
+	/**
+	 * Loads a level file and solves the whole pack, printing a result line for
+	 * each level and a summary at the end.
+	 *
+	 * @param args levelFile [threads] [memoryMB] [nodes] [millis] [rounds]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: java PackScheduler levelFile [threads] [memoryMB] [nodes] [millis] [rounds]");
+			return;
+		}
+		ArrayList<char[][]> levels = new ArrayList<char[][]>();
+		ArrayList<int[]> goals = new ArrayList<int[]>();
+		try {
+			Sokoban.loadLevels(args[0], levels, goals);
+		} catch (FileNotFoundException notFound) {
+			System.out.println("Error while reading file: " + args[0]);
+			return;
+		}
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long memoryBytes = args.length > 2 ? Long.parseLong(args[2]) * 1024 * 1024
+				: Runtime.getRuntime().maxMemory() / 4 * 3;
+		long nodes = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_NODES;
+		long millis = args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_MILLIS;
+		int rounds = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_ROUNDS;
+
+		long begin = System.currentTimeMillis();
+		try (SolutionCache cache = new SolutionCache(new File(Config.SOLUTION_CACHE_FILE),
+				Config.SOLUTION_CACHE_SIZE)) {
+			PackScheduler scheduler = new PackScheduler(levels, goals, threads, memoryBytes, nodes, millis, rounds,
+					cache, System.out);
+			ArrayList<LevelResult> results = scheduler.run();
+			int solved = 0;
+			for (LevelResult result : results)
+				if (result.status == Solver.SOLVED)
+					solved++;
+			long wall = System.currentTimeMillis() - begin;
+			System.out.println("Solved " + solved + " of " + levels.size() + " levels in " + wall + " ms ("
+					+ scheduler.cpuMillis() + " ms of CPU time on " + threads + " threads).");
+		} catch (IOException e) {
+			System.out.println("Error opening solution cache: " + Config.SOLUTION_CACHE_FILE);
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted.");
+		}
+	}
+}
@@ -0,0 +1,293 @@
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * PlayoutEngine: Estimates how hard a level is by playing it many times with
+ * random moves. Every playout starts from the beginning of the level and moves
+ * the worker with movePlayer() from Sokoban.java until the level is solved, a
+ * box is pushed onto a dead square (a cell it can never leave towards a goal)
+ * or the playout runs out of steps.
+ *
+ * The playouts are split over one thread per core. Every thread has its own
+ * copy of the board, its own SplittableRandom and its own counters, and the
+ * counters are only added together once all the threads are done, so nothing
+ * is shared while the playouts run.
+ *
+ * Usage: java PlayoutEngine [levelFile] [playouts] [maxSteps] [seed] [guided]
+ *
+ */
+public class PlayoutEngine {
+
+	public static final int DEFAULT_PLAYOUTS = 1000000; // playouts per level
+	public static final int DEFAULT_MAX_STEPS = 200; // steps per playout before giving up
+
+	/**
+	 * The results of a set of playouts on one level. Threads fill their own
+	 * PlayoutStats and these are combined with add().
+	 */
+	public static class PlayoutStats {
+		public long playouts; // number of playouts
+		public long steps; // calls to movePlayer()
+		public long solved; // playouts that solved the level
+		public long deadlocks; // playouts stopped by a box on a dead square
+		public long pushesBeforeDeadlock; // pushes made by the deadlocked playouts
+		public long[] reachedGoals; // reachedGoals[k]: playouts that had k boxes on goals at some point
+		public long nanos; // time spent playing
+
+		public PlayoutStats(int boxes) {
+			reachedGoals = new long[boxes + 1];
+		}
+
+		/**
+		 * Adds the counters of another set of playouts to this one.
+		 *
+		 * @param other the counters of another thread
+		 */
+		public void add(PlayoutStats other) {
+			playouts += other.playouts;
+			steps += other.steps;
+			solved += other.solved;
+			deadlocks += other.deadlocks;
+			pushesBeforeDeadlock += other.pushesBeforeDeadlock;
+			for (int k = 0; k < reachedGoals.length; k++)
+				reachedGoals[k] += other.reachedGoals[k];
+		}
+
+		/**
+		 * @param k a number of boxes
+		 * @return the fraction of playouts that had at least k boxes on goals
+		 */
+		public double fractionReaching(int k) {
+			long count = 0;
+			for (int i = k; i < reachedGoals.length; i++)
+				count += reachedGoals[i];
+			return playouts == 0 ? 0 : (double) count / playouts;
+		}
+
+		/**
+		 * @return the mean number of pushes made by playouts that ended in a
+		 *         deadlock
+		 */
+		public double meanPushesBeforeDeadlock() {
+			return deadlocks == 0 ? 0 : (double) pushesBeforeDeadlock / deadlocks;
+		}
+
+		/**
+		 * @return steps per second over all the threads
+		 */
+		public double stepsPerSecond() {
+			return nanos == 0 ? 0 : steps * 1e9 / nanos;
+		}
+	}
+
+	/**
+	 * Makes the board a level starts with, with its goals marked by
+	 * Sokoban.markGoals().
+	 *
+	 * @param level the level
+	 * @param goals the goal list of the level
+	 * @return a new board with the goals marked
+	 */
+	public static char[][] startBoard(char[][] level, int[] goals) {
+		char[][] board = new char[level.length][];
+		for (int i = 0; i < level.length; i++)
+			board[i] = level[i].clone();
+		Sokoban.markGoals(new ArrayBoard(board), goals);
+		return board;
+	}
+
+	/**
+	 * Runs a number of playouts on a single thread. Algorithm: the board is
+	 * reset by copying the rows of the start board back, then the worker is
+	 * moved in a random direction until the playout ends. A move onto a box is a
+	 * push; the box's cell before and after is used to keep the number of boxes
+	 * on goals up to date without scanning the board. When guided is true the
+	 * worker does not walk straight back to the cell it just left, unless its
+	 * last try was blocked.
+	 *
+	 * @param start    the start board (not changed)
+	 * @param worker   row and column of the worker on the start board
+	 * @param dead     dead[row][col] is true for a dead square
+	 * @param boxes    number of boxes in the level
+	 * @param playouts number of playouts to run
+	 * @param maxSteps steps per playout before giving up
+	 * @param rand     the random numbers of this thread
+	 * @param guided   true to avoid undoing the last step
+	 * @return the counters of these playouts
+	 */
+	public static PlayoutStats runPlayouts(char[][] start, int[] worker, boolean[][] dead, int boxes, long playouts,
+			int maxSteps, SplittableRandom rand, boolean guided) {
+		int[][] steps = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+		char[][] board = new char[start.length][];
+		for (int i = 0; i < start.length; i++)
+			board[i] = start[i].clone();
+		ArrayBoard playBoard = new ArrayBoard(board);
+		int[] position = new int[2];
+		int startOnGoals = 0;
+		for (char[] row : start)
+			for (char ch : row)
+				if (ch == Config.BOX_GOAL_CHAR)
+					startOnGoals++;
+		PlayoutStats stats = new PlayoutStats(boxes);
+		long begin = System.nanoTime();
+		for (long p = 0; p < playouts; p++) {
+			for (int i = 0; i < start.length; i++)
+				System.arraycopy(start[i], 0, board[i], 0, start[i].length);
+			position[0] = worker[0];
+			position[1] = worker[1];
+			int onGoals = startOnGoals;
+			int best = onGoals;
+			int pushes = 0;
+			int back = -1;
+			boolean deadlock = false;
+			for (int s = 0; s < maxSteps && onGoals < boxes; s++) {
+				int dir = rand.nextInt(4);
+				if (guided && dir == back)
+					dir = (dir + 1 + rand.nextInt(3)) & 3;
+				int[] step = steps[dir];
+				int row = position[0] + step[0];
+				int col = position[1] + step[1];
+				char before = (row >= 0 && row < board.length && col >= 0 && col < board[row].length) ? board[row][col]
+						: Config.WALL_CHAR;
+				stats.steps++;
+				if (Sokoban.movePlayer(playBoard, position, step) < 1) {
+					back = -1; // blocked, so walking back is allowed again
+					continue;
+				}
+				back = dir ^ 1;
+				if (before == Config.BOX_CHAR || before == Config.BOX_GOAL_CHAR) {
+					pushes++;
+					int boxRow = row + step[0];
+					int boxCol = col + step[1];
+					if (board[boxRow][boxCol] == Config.BOX_GOAL_CHAR)
+						onGoals++;
+					if (before == Config.BOX_GOAL_CHAR)
+						onGoals--;
+					best = Math.max(best, onGoals);
+					if (dead[boxRow][boxCol]) {
+						deadlock = true;
+						break;
+					}
+				}
+			}
+			stats.playouts++;
+			stats.reachedGoals[best]++;
+			if (onGoals == boxes)
+				stats.solved++;
+			if (deadlock) {
+				stats.deadlocks++;
+				stats.pushesBeforeDeadlock += pushes;
+			}
+		}
+		stats.nanos = System.nanoTime() - begin;
+		return stats;
+	}
+
+	/**
+	 * Runs the playouts for one level on every core. Algorithm: the dead squares
+	 * are found once with LevelGrid.deadSquares(), then the playouts are divided
+	 * between the threads. Each thread gets a SplittableRandom split from the one
+	 * made with seed, so the same seed and thread count always gives the same
+	 * counters.
+	 *
+	 * @param level    the level
+	 * @param goals    the goal list of the level
+	 * @param playouts total number of playouts
+	 * @param maxSteps steps per playout before giving up
+	 * @param seed     seed for the random numbers
+	 * @param guided   true to avoid undoing the last step
+	 * @return the combined counters
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws ExecutionException   if a playout thread failed
+	 */
+	public static PlayoutStats estimate(char[][] level, int[] goals, long playouts, int maxSteps, long seed,
+			boolean guided) throws InterruptedException, ExecutionException {
+		LevelGrid grid = LevelGrid.fromLevel(level, goals);
+		boolean[] deadCells = grid.deadSquares();
+		boolean[][] dead = new boolean[level.length][];
+		int[] worker = new int[2];
+		for (int i = 0; i < level.length; i++) {
+			dead[i] = new boolean[level[i].length];
+			for (int j = 0; j < level[i].length; j++) {
+				dead[i][j] = deadCells[grid.cellOf(i, j)];
+				if (level[i][j] == Config.WORKER_CHAR || level[i][j] == Config.WORK_GOAL_CHAR) {
+					worker[0] = i;
+					worker[1] = j;
+				}
+			}
+		}
+		char[][] start = startBoard(level, goals);
+		int boxes = grid.boxes.length;
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		SplittableRandom root = new SplittableRandom(seed);
+		ArrayList<Future<PlayoutStats>> results = new ArrayList<Future<PlayoutStats>>();
+		PlayoutStats total = new PlayoutStats(boxes);
+		long begin = System.nanoTime();
+		try {
+			for (int t = 0; t < threads; t++) {
+				long share = playouts / threads + (t < playouts % threads ? 1 : 0);
+				SplittableRandom rand = root.split();
+				results.add(pool.submit(() -> runPlayouts(start, worker, dead, boxes, share, maxSteps, rand, guided)));
+			}
+			for (Future<PlayoutStats> result : results)
+				total.add(result.get());
+		} finally {
+			pool.shutdownNow();
+		}
+		total.nanos = System.nanoTime() - begin;
+		return total;
+	}
+
+	/**
+	 * Prints the counters for one level.
+	 *
+	 * @param level the number of the level
+	 * @param stats the counters
+	 */
+	public static void printStats(int level, PlayoutStats stats) {
+		System.out.println("Level " + level + ": " + stats.playouts + " playouts, " + stats.steps + " steps, "
+				+ String.format("%.1f", stats.stepsPerSecond() / 1e6) + "M steps/s");
+		System.out.println("\tsolved: " + String.format("%.6f", (double) stats.solved / Math.max(1, stats.playouts)));
+		System.out.println("\tdeadlocked: " + String.format("%.6f", (double) stats.deadlocks / Math.max(1, stats.playouts))
+				+ ", mean pushes before deadlock: " + String.format("%.2f", stats.meanPushesBeforeDeadlock()));
+		for (int k = 1; k < stats.reachedGoals.length; k++)
+			System.out.println("\treached " + k + " box(es) on goals: " + String.format("%.6f", stats.fractionReaching(k)));
+	}
+
+	/**
+	 * Loads the levels (or uses Config.LEVELS when no file is given) and prints
+	 * the playout counters of every valid level.
+	 *
+	 * @param args [levelFile] [playouts] [maxSteps] [seed] [guided]
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0 && !args[0].isEmpty()) {
+			try {
+				Sokoban.loadLevels(args[0], Config.LEVELS, Config.GOALS);
+			} catch (FileNotFoundException notFound) {
+				System.out.println("Error while reading file: " + args[0]);
+				return;
+			}
+		}
+		long playouts = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_PLAYOUTS;
+		int maxSteps = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_STEPS;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		boolean guided = args.length > 4 && args[4].equalsIgnoreCase("guided");
+		for (int i = 0; i < Config.LEVELS.size(); i++) {
+			if (Sokoban.checkLevel(i, Config.LEVELS, Config.GOALS) < 1) {
+				System.out.println("Level " + i + ": skipped, level is not valid.");
+				continue;
+			}
+			try {
+				printStats(i, estimate(Config.LEVELS.get(i), Config.GOALS.get(i), playouts, maxSteps, seed, guided));
+			} catch (Exception e) {
+				System.out.println("Error while running playouts on level " + i);
+				e.printStackTrace();
+			}
+		}
+	}
+}
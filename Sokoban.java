@@ -198,6 +198,30 @@ public class Sokoban {
 
 	}
 
+	/**
+	 * Works out the move that was actually made. It is shorter than the move typed
+	 * when the worker was stopped by a wall or a box on the way. The direction is
+	 * taken from where the worker went, so a move typed with a negative magnitude
+	 * is recorded the way it was played.
+	 * 
+	 * @param before the position of the worker before the move
+	 * @param after  the position of the worker after the move
+	 * @return the move made, or null when the worker did not move
+	 */
+	public static String moveMade(int[] before, int[] after) {
+		int rowChange = after[0] - before[0];
+		int colChange = after[1] - before[1];
+		int steps = Math.abs(rowChange) + Math.abs(colChange);
+		if (steps == 0)
+			return null;
+		char direction;
+		if (rowChange != 0)
+			direction = rowChange < 0 ? Config.UP_CHAR : Config.DOWN_CHAR;
+		else
+			direction = colChange < 0 ? Config.LEFT_CHAR : Config.RIGHT_CHAR;
+		return direction + (steps > 1 ? Integer.toString(steps) : "");
+	}
+
 	/**
 	 * This method checks if the moves the user picked are valid/good Algorithm: The
 	 * method has statements that check whether the move the user wants to do is
@@ -212,27 +236,7 @@ public class Sokoban {
 	 */
 
 	public static int movesAreGood(char[][] gameBoard, int[] userPos, int[] userPosChange, char[] charVal) {
-		if (userPos == null || userPos.length != 2 || userPos[0] < 0 || userPos[1] < 0 || userPos[0] >= gameBoard.length
-				|| userPos[1] >= gameBoard[userPos[0]].length)
-			return -1;
-		boolean matchChar = false;
-		for (int i = 0; i < charVal.length; i++)
-			if (gameBoard[userPos[0]][userPos[1]] == charVal[i])
-				matchChar = true;
-		if (!matchChar)
-			return -2;
-		if (userPosChange == null || userPosChange.length != 2)
-			return -3;
-
-		int[] newPos = new int[] { userPos[0] + userPosChange[0], userPos[1] + userPosChange[1] };
-
-		if (newPos[0] < 0 || newPos[0] >= gameBoard.length || newPos[1] < 0 || newPos[1] >= gameBoard[newPos[0]].length
-				|| gameBoard[newPos[0]][newPos[1]] == Config.WALL_CHAR)
-			return -4;
-		if (gameBoard[newPos[0]][newPos[1]] == Config.BOX_CHAR
-				|| gameBoard[newPos[0]][newPos[1]] == Config.BOX_GOAL_CHAR)
-			return -5;
-		return 1;
+		return movesAreGood(new ArrayBoard(gameBoard), userPos, userPosChange, charVal);
 	}
 
 	/**
@@ -251,8 +255,7 @@ public class Sokoban {
 	 *                     new position equal to False value
 	 */
 	public static void togglePos(char[][] gameBoard, int[] position, char beginningPos, char userTrue, char userFalse) {
-		gameBoard[position[0]][position[1]] = (gameBoard[position[0]][position[1]] == beginningPos ? userTrue
-				: userFalse);
+		togglePos(new ArrayBoard(gameBoard), position, beginningPos, userTrue, userFalse);
 	}
 
 	/**
@@ -271,14 +274,7 @@ public class Sokoban {
 	 * @return an int that allows the user to move the box
 	 */
 	public static int shiftBox(char[][] board, int[] position, int[] userPosChange) {
-		int check = movesAreGood(board, position, userPosChange, new char[] { Config.BOX_CHAR, Config.BOX_GOAL_CHAR });
-		if (check < 1) {
-			return check;
-		}
-		int[] newPos = new int[] { position[0] + userPosChange[0], position[1] + userPosChange[1] };
-		togglePos(board, newPos, Config.GOAL_CHAR, Config.BOX_GOAL_CHAR, Config.BOX_CHAR);
-		togglePos(board, position, Config.BOX_GOAL_CHAR, Config.GOAL_CHAR, Config.EMPTY_CHAR);
-		return 1;
+		return shiftBox(new ArrayBoard(board), position, userPosChange);
 	}
 
 	/**
@@ -295,22 +291,7 @@ public class Sokoban {
 	 *         level
 	 */
 	public static int processPlayerMoves(char[][] board, int[] position, int[] userPosChange) {
-		int index = (userPosChange[0] != 0) ? 0 : 1;
-		int sign = Integer.signum(userPosChange[index]);
-		if (sign == 0) {
-			return 0;
-		}
-		for (int i = 0; i != userPosChange[index]; i += sign) {
-			int[] step = new int[2];
-			step[index] = sign;
-			step[(index + 1) % 2] = 0;
-			int mvChk = 0;
-			if ((mvChk = movePlayer(board, position, step)) < 1) {
-				return mvChk;
-			}
-
-		}
-		return 1;
+		return processPlayerMoves(new ArrayBoard(board), position, userPosChange);
 	}
 
 	/**
@@ -371,6 +352,85 @@ public class Sokoban {
 	 * @return an int that dictates the players new position
 	 */
 	public static int movePlayer(char[][] gameBoard, int[] position, int[] steps) {
+		return movePlayer(new ArrayBoard(gameBoard), position, steps);
+	}
+
+	/**
+	 * Same as movesAreGood() above, for any Board.
+	 * 
+	 * @param gameBoard     the game board
+	 * @param userPos       the users position
+	 * @param userPosChange the change of the users position
+	 * @param charVal       a char array that holds '.'/'@' or '*'/'+'
+	 * @return a negative int when a move is invalid or a 1 when it is valid
+	 */
+	public static int movesAreGood(Board gameBoard, int[] userPos, int[] userPosChange, char[] charVal) {
+		if (userPos == null || userPos.length != 2 || !gameBoard.inBounds(userPos[0], userPos[1]))
+			return -1;
+		boolean matchChar = false;
+		char at = gameBoard.get(userPos[0], userPos[1]);
+		for (int i = 0; i < charVal.length; i++)
+			if (at == charVal[i])
+				matchChar = true;
+		if (!matchChar)
+			return -2;
+		if (userPosChange == null || userPosChange.length != 2)
+			return -3;
+
+		int newRow = userPos[0] + userPosChange[0];
+		int newCol = userPos[1] + userPosChange[1];
+		if (!gameBoard.inBounds(newRow, newCol) || gameBoard.get(newRow, newCol) == Config.WALL_CHAR)
+			return -4;
+		if (gameBoard.get(newRow, newCol) == Config.BOX_CHAR || gameBoard.get(newRow, newCol) == Config.BOX_GOAL_CHAR)
+			return -5;
+		return 1;
+	}
+
+	/**
+	 * Same as togglePos() above, for any Board.
+	 * 
+	 * @param gameBoard    the board of the game that we're exploring
+	 * @param position     the position of the user
+	 * @param beginningPos the character that picks userTrue
+	 * @param userTrue     the new character when the cell is beginningPos
+	 * @param userFalse    the new character otherwise
+	 */
+	public static void togglePos(Board gameBoard, int[] position, char beginningPos, char userTrue,
+			char userFalse) {
+		gameBoard.set(position[0], position[1],
+				gameBoard.get(position[0], position[1]) == beginningPos ? userTrue : userFalse);
+	}
+
+	/**
+	 * Same as shiftBox() above, for any Board.
+	 * 
+	 * @param board         the game board
+	 * @param position      the position of the box
+	 * @param userPosChange the change of the users position (x,y)
+	 * @return an int that allows the user to move the box
+	 */
+	public static int shiftBox(Board board, int[] position, int[] userPosChange) {
+		int check = movesAreGood(board, position, userPosChange, new char[] { Config.BOX_CHAR, Config.BOX_GOAL_CHAR });
+		if (check < 1) {
+			return check;
+		}
+		int[] newPos = new int[] { position[0] + userPosChange[0], position[1] + userPosChange[1] };
+		togglePos(board, newPos, Config.GOAL_CHAR, Config.BOX_GOAL_CHAR, Config.BOX_CHAR);
+		togglePos(board, position, Config.BOX_GOAL_CHAR, Config.GOAL_CHAR, Config.EMPTY_CHAR);
+		return 1;
+	}
+
+	/**
+	 * Same as movePlayer() above, for any Board. Only the cells next to the
+	 * worker are looked at, so a step costs the same on any size of board.
+	 * Afterwards the board is told about the move with Board.moved().
+	 * 
+	 * @param gameBoard the game the user is in
+	 * @param position  the beginning position of the user
+	 * @param steps     a size 2 array that has the steps of the user
+	 * @return an int that dictates the players new position
+	 */
+	public static int movePlayer(Board gameBoard, int[] position, int[] steps) {
 		int check = movesAreGood(gameBoard, position, steps, new char[] { Config.WORKER_CHAR, Config.WORK_GOAL_CHAR });
 		if (check < 1 && check != -5)
 			return check;
@@ -381,6 +441,33 @@ public class Sokoban {
 		togglePos(gameBoard, position, Config.WORK_GOAL_CHAR, Config.GOAL_CHAR, Config.EMPTY_CHAR);
 		position[0] = newPos[0];
 		position[1] = newPos[1];
+		gameBoard.moved(position, steps, check == -5);
+		return 1;
+	}
+
+	/**
+	 * Same as processPlayerMoves() above, for any Board.
+	 * 
+	 * @param board         the board of the game the user was in
+	 * @param position      the position the user was in
+	 * @param userPosChange the change of the users position
+	 * @return 1 when every step was made, otherwise the result of the step that
+	 *         failed
+	 */
+	public static int processPlayerMoves(Board board, int[] position, int[] userPosChange) {
+		int index = (userPosChange[0] != 0) ? 0 : 1;
+		int sign = Integer.signum(userPosChange[index]);
+		if (sign == 0) {
+			return 0;
+		}
+		for (int i = 0; i != userPosChange[index]; i += sign) {
+			int[] step = new int[2];
+			step[index] = sign;
+			int mvChk = 0;
+			if ((mvChk = movePlayer(board, position, step)) < 1) {
+				return mvChk;
+			}
+		}
 		return 1;
 	}
 
@@ -489,6 +576,38 @@ public class Sokoban {
 
 	}
 
+	/**
+	 * The starting board of the level played last, kept so playing it again only
+	 * copies it. The level is compared by identity, so loading a new level file
+	 * never finds an old board. Only one level is kept, so a big pack does not
+	 * keep a board for every level played.
+	 */
+	private static char[][] startLevel;
+	private static ChunkedBoard startBoard;
+
+	/**
+	 * Makes the board for a new game and assigns the user its position. This does
+	 * the work of assignUserPos() and setGoals() for a ChunkedBoard. Algorithm:
+	 * the board of the level is built when the level is played, unless it was
+	 * also the level played last; then the game gets a copy that shares its
+	 * chunks, so playing a level again does not copy its cells.
+	 * 
+	 * @param levelByUser the level the user picks
+	 * @param usersPos    the position of the user
+	 * @return the board of the game
+	 */
+	public static ChunkedBoard newGameBoard(int levelByUser, int[] usersPos) {
+		char[][] level = Config.LEVELS.get(levelByUser);
+		if (startLevel != level) {
+			startBoard = ChunkedBoard.fromLevel(level, Config.GOALS.get(levelByUser));
+			startLevel = level;
+		}
+		ChunkedBoard start = startBoard;
+		usersPos[0] = start.workerRow;
+		usersPos[1] = start.workerCol;
+		return start.copy();
+	}
+
 	/**
 	 * This method sets the goals for the level a user picks. Algorithm: This method
 	 * takes in the level by the user, the game board and then sets the amount of
@@ -499,24 +618,27 @@ public class Sokoban {
 	 */
 
 	public static void setGoals(int levelByUser, char[][] gameBoard) {
+		markGoals(new ArrayBoard(gameBoard), Config.GOALS.get(levelByUser));
+	}
 
-		for (int i = 0; i < Config.GOALS.get(levelByUser).length; i += 2) {
-			int rowGoal = Config.GOALS.get(levelByUser)[i];
-			int columnGoal = Config.GOALS.get(levelByUser)[i + 1];
-			// If we are on a box '$' then our character will change to a '*'
-			if (gameBoard[rowGoal][columnGoal] == Config.BOX_CHAR) {
-				gameBoard[rowGoal][columnGoal] = Config.BOX_GOAL_CHAR;
-			}
-			// If we are worker '@' on a goal then our character will change to '.'
-			else if (gameBoard[rowGoal][columnGoal] == Config.WORKER_CHAR) {
-				gameBoard[rowGoal][columnGoal] = Config.WORK_GOAL_CHAR;
-			}
-			// The goal'.' will remain the same
-			else {
-				gameBoard[rowGoal][columnGoal] = Config.GOAL_CHAR;
-			}
+	/**
+	 * This method sets the goals for a level. Algorithm: every cell in the goal
+	 * list becomes a goal: a box '$' turns into '*', the worker '@' into '+' and
+	 * an empty cell into '.'. Cells that already show a goal are left alone.
+	 * 
+	 * @param board the board of the level
+	 * @param goals the goal list of the level
+	 */
+	public static void markGoals(Board board, int[] goals) {
+		for (int i = 0; i < goals.length - 1; i += 2) {
+			char ch = board.get(goals[i], goals[i + 1]);
+			if (ch == Config.BOX_CHAR)
+				board.set(goals[i], goals[i + 1], Config.BOX_GOAL_CHAR);
+			else if (ch == Config.WORKER_CHAR)
+				board.set(goals[i], goals[i + 1], Config.WORK_GOAL_CHAR);
+			else if (ch != Config.BOX_GOAL_CHAR && ch != Config.WORK_GOAL_CHAR)
+				board.set(goals[i], goals[i + 1], Config.GOAL_CHAR);
 		}
-
 	}
 
 	/*
@@ -580,7 +702,8 @@ public class Sokoban {
 	 * each other. This method prints out the game board, the help menu, checks if
 	 * levels are valid, gives errors if the level is not valid, prints out a level
 	 * when a level is valid, saves the amount of moves it took to complete a level,
-	 * and overall makes the game run.
+	 * writes every move to the move journal, offers to resume a game the journal
+	 * shows was not finished, and overall makes the game run.
 	 * 
 	 * @param args String array with arguments
 	 */
@@ -597,11 +720,21 @@ public class Sokoban {
 				return;
 			}
 		}
+		// offers to continue a game that was not finished
+		File journalFile = new File(Config.JOURNAL_FILE);
+		MoveJournal.Saved saved = MoveJournal.read(journalFile);
+		if (saved != null && (checkLevel(saved.level, Config.LEVELS, Config.GOALS) < 1 || !saved.hash
+				.equals(SolutionCache.levelHash(Config.LEVELS.get(saved.level), Config.GOALS.get(saved.level)))))
+			saved = null;
+		if (saved != null && promptChar(scan, "Resume unfinished game on level " + saved.level + " ("
+				+ saved.moves.size() + " moves)? (y/n) ") != 'y')
+			saved = null;
 		char playAgain = 'n';
 		do {
 
-			int levelByUser = promptInt(scan, "Choose a level between 0 and " + (Config.LEVELS.size() - 1) + ": ", 0,
-					Config.LEVELS.size() - 1);
+			int levelByUser = saved != null ? saved.level
+					: promptInt(scan, "Choose a level between 0 and " + (Config.LEVELS.size() - 1) + ": ", 0,
+							Config.LEVELS.size() - 1);
 			int lvlTest = checkLevel(levelByUser, Config.LEVELS, Config.GOALS);
 			// Enters when level is invalid
 			if (lvlTest < 1) {
@@ -614,20 +747,43 @@ public class Sokoban {
 
 				int[] usersPosition = { 0, 0 };
 
-				char[][] gameBoard = new char[Config.LEVELS.get(levelByUser).length][];
-				// assigning the users position
-				assignUserPos(levelByUser, gameBoard, usersPosition);
-				// setting the goals for the level
-				setGoals(levelByUser, gameBoard);
+				// assigning the users position and setting the goals for the level
+				ChunkedBoard gameBoard = newGameBoard(levelByUser, usersPosition);
+				MoveJournal journal;
+				if (saved != null) {
+					// replays the moves of the unfinished game
+					for (String move : saved.moves) {
+						int[] delta = calcMoves(move);
+						if (delta[0] != delta[1]) {
+							int[] before = usersPosition.clone();
+							processPlayerMoves(gameBoard, usersPosition, delta);
+							String made = moveMade(before, usersPosition);
+							if (made != null) {
+								moves.add(made);
+								moveCount += Math.abs(usersPosition[0] - before[0]) + Math.abs(usersPosition[1] - before[1]);
+							}
+						}
+					}
+					journal = MoveJournal.resume(journalFile);
+					saved = null;
+				} else {
+					journal = MoveJournal.start(journalFile, levelByUser,
+							SolutionCache.levelHash(Config.LEVELS.get(levelByUser), Config.GOALS.get(levelByUser)));
+				}
+				// lets observers follow the moves of this level
+				BoardEvents events = new BoardEvents(gameBoard, usersPosition);
+				// remembers the work done for hints during this level
+				HintEngine hints = new HintEngine(events, Config.LEVELS.get(levelByUser),
+						Config.GOALS.get(levelByUser));
 
 				System.out.println("Sokoban Level " + levelByUser);
 				boolean workerGoal = false;
 				boolean printBoard = true;
 
-				while ((workerGoal = workerOnGoal(gameBoard)) == false) {
+				while ((workerGoal = gameBoard.openGoals() == 0) == false) {
 
 					if (printBoard) {
-						printGameBoard(gameBoard);
+						printGameBoard(gameBoard, usersPosition);
 					}
 					printBoard = true;
 
@@ -640,6 +796,10 @@ public class Sokoban {
 					else if (move.charAt(0) == '?') {
 						helpMenu();
 						printBoard = false;
+					} else if (move.toLowerCase().charAt(0) == Config.HINT_CHAR) {
+						// gives the next move within the time allowed for hints
+						hints.printHint();
+						printBoard = false;
 					}
 					// loading the players moves in a file
 					else if (move.toLowerCase().charAt(0) == 'l') {
@@ -653,9 +813,15 @@ public class Sokoban {
 								int[] delta = calcMoves(move);
 								if (delta[0] != delta[1]) {
 									// calculates the moves the user took in said level
+									int[] before = usersPosition.clone();
 									processPlayerMoves(gameBoard, usersPosition, delta);
-									moves.add(move);
-									moveCount += Math.abs(delta[0]) + Math.abs(delta[1]);
+									String made = moveMade(before, usersPosition);
+									if (made != null) {
+										moves.add(made);
+										journal.append(made);
+										moveCount += Math.abs(usersPosition[0] - before[0])
+												+ Math.abs(usersPosition[1] - before[1]);
+									}
 								}
 							}
 						} catch (FileNotFoundException notFound) {
@@ -667,18 +833,25 @@ public class Sokoban {
 					} else {
 						int[] delta = calcMoves(move);
 						if (delta[0] != delta[1]) {
-							int movesTaken = processPlayerMoves(gameBoard, usersPosition, delta);
-							if (movesTaken > 0) {
-								moves.add(move);
-								moveCount += Math.abs(delta[0]) + Math.abs(delta[1]);
+							// a move stopped by a wall or a box is kept with the steps it made
+							int[] before = usersPosition.clone();
+							processPlayerMoves(gameBoard, usersPosition, delta);
+							String made = moveMade(before, usersPosition);
+							if (made != null) {
+								moves.add(made);
+								journal.append(made);
+								moveCount += Math.abs(usersPosition[0] - before[0]) + Math.abs(usersPosition[1] - before[1]);
 							}
 						}
 					}
 				}
 
+				hints.close();
+				journal.finish();
+				events.close();
 				if (workerGoal) {
 
-					playerWonGame(scan, gameBoard, moveCount, moves);
+					playerWonGame(scan, gameBoard, usersPosition, moveCount, moves);
 				}
 			}
 			playAgain = promptChar(scan, "Play again? (y/n) ");
@@ -714,6 +887,53 @@ public class Sokoban {
 
 	}
 
+	/**
+	 * Prints the part of the gameBoard around the worker. Algorithm: a window of
+	 * at most Config.VIEW_ROWS by Config.VIEW_COLS cells is centred on the worker
+	 * and moved back inside the board where it would stick out. Only the cells
+	 * in the window are read, so printing takes the same time on any size of
+	 * board. A board that fits in the window is printed the same way as the
+	 * printGameBoard() above. Otherwise the walls are drawn across the width of
+	 * the window and the cells past the end of a short row, which are outside the
+	 * board, are printed as walls.
+	 * 
+	 * @param gameBoard the game board/level the user picked
+	 * @param center    the position of the worker
+	 */
+	public static void printGameBoard(ChunkedBoard gameBoard, int[] center) {
+		int top = Math.max(0, Math.min(center[0] - Config.VIEW_ROWS / 2, gameBoard.rows() - Config.VIEW_ROWS));
+		int bottom = Math.min(gameBoard.rows(), top + Config.VIEW_ROWS) - 1;
+		int width = 0;
+		for (int i = top; i <= bottom; i++)
+			width = Math.max(width, gameBoard.rowLength(i));
+		int left = Math.max(0, Math.min(center[1] - Config.VIEW_COLS / 2, width - Config.VIEW_COLS));
+		int right = left + Config.VIEW_COLS;
+		boolean fits = top == 0 && bottom == gameBoard.rows() - 1 && width <= Config.VIEW_COLS;
+		int end = Math.min(width, right);
+
+		StringBuilder out = new StringBuilder();
+		for (int i = left - 1; i <= (fits ? gameBoard.rowLength(top) : end); i++) {
+			out.append(Config.WALL_CHAR);
+		}
+		for (int i = top; i <= bottom; i++) {
+			out.append("\n").append(Config.WALL_CHAR);
+			int rowEnd = Math.min(gameBoard.rowLength(i), right);
+			for (int j = left; j < rowEnd; j++) {
+				out.append(gameBoard.get(i, j));
+			}
+			// cells past the end of a short row are outside the board, so they are walls
+			for (int j = Math.max(left, rowEnd); !fits && j < end; j++) {
+				out.append(Config.WALL_CHAR);
+			}
+			out.append(Config.WALL_CHAR);
+		}
+		out.append("\n");
+		for (int i = left - 1; i <= (fits ? gameBoard.rowLength(bottom) : end); i++) {
+			out.append(Config.WALL_CHAR);
+		}
+		System.out.println(out);
+	}
+
 	/**
 	 * Prints out the help menu when the user enters '?' Algorithm: When the user is
 	 * in the game and does not know how to actually play the game, then they can
@@ -747,6 +967,7 @@ public class Sokoban {
 		System.out.println("\tQuit: " + Config.QUIT_CHAR);
 		System.out.println("\tLoad moves: l");
 		System.out.println("\tSave moves: s");
+		System.out.println("\tHint: " + Config.HINT_CHAR);
 		System.out.println("\tHelp menu: ?");
 
 	}
@@ -777,4 +998,26 @@ public class Sokoban {
 			processSaveMove(scanner, savedMoves);
 		}
 	}
+
+	/**
+	 * Same as playerWonGame() above, for a ChunkedBoard; only the viewport around
+	 * the worker is printed.
+	 * 
+	 * @param scanner    the scanner that reads the player's answer
+	 * @param gameBoard  the level/board the player will be exploring
+	 * @param position   the position of the worker
+	 * @param moveCount  amount of moves it took for the player to complete the game
+	 * @param savedMoves arrayList that stores a file with the saved moves
+	 */
+	public static void playerWonGame(Scanner scanner, ChunkedBoard gameBoard, int[] position, int moveCount,
+			ArrayList<String> savedMoves) {
+
+		System.out.println("Congratulations! You won in " + moveCount + " moves!");
+		printGameBoard(gameBoard, position);
+
+		char saveWin = promptChar(scanner, "Save your winning strategy? (y/n)");
+		if (saveWin == 'y') {
+			processSaveMove(scanner, savedMoves);
+		}
+	}
 }
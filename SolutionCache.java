@@ -0,0 +1,493 @@
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * SolutionCache: Keeps the solutions found by Solver on disk so the same level
+ * never has to be searched twice, even after the program is restarted. Only
+ * solutions with the fewest pushes may be put in the cache, because get() and
+ * solve() hand them out as the best solution of the level.
+ *
+ * Levels are looked up by a hash of their content (walls, goals, boxes and the
+ * worker), so a level gets the same hash whether it comes from Config.LEVELS
+ * or from a file read with loadLevels(), and no matter how many rows or
+ * columns of walls surround it.
+ *
+ * Solutions are only ever added to the end of the cache file. Each record is
+ * its length, the data and a CRC32 of the data, so a record cut short by a
+ * crash is found and dropped the next time the file is opened. An index in
+ * memory maps every hash to the place of its record in the file, which makes a
+ * lookup a single small read. The index holds at most maxEntries levels and
+ * forgets the least recently used one when it is full. A lookup that finds a
+ * level adds a small touch record (just the hash), so the order of use is in
+ * the file too and survives a restart. When the file holds more than twice
+ * the data still in the index it is compacted: the live records are written
+ * to a new file, least recently used first and without the touch records,
+ * which is flushed to disk and then moved over the old file in one step.
+ *
+ * Several programs may use the same file. Every lookup, append and compaction
+ * holds a FileLock on the file and first reads the records the others added
+ * since, and a program that finds the file was compacted under it opens the
+ * new one. A cache opened read only takes a shared lock, never writes and
+ * never cuts off a damaged end, which is left for a writer to deal with.
+ *
+ */
+public class SolutionCache implements Closeable {
+
+	/**
+	 * Where a solution is stored in the cache file.
+	 */
+	private static class Entry {
+		final long offset; // start of the record
+		final int length; // bytes in the record
+
+		Entry(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Work done while holding the lock on the cache file.
+	 */
+	private interface Locked<T> {
+		T run() throws IOException;
+	}
+
+	private final File file;
+	private final int maxEntries;
+	private final boolean readOnly;
+	private final LinkedHashMap<String, Entry> index;
+	private FileChannel channel;
+	private Object fileKey; // tells whether the file was replaced by a compaction
+	private long end; // bytes of the file read into the index so far
+	private long liveBytes; // bytes of the records still in the index
+	private String newest; // the most recently used level, it needs no touch record
+
+	/**
+	 * Opens (or creates) the cache file for reading and writing and builds the
+	 * index.
+	 *
+	 * @param file       the cache file
+	 * @param maxEntries the most levels kept in the cache
+	 * @throws IOException if the file cannot be read or written
+	 */
+	public SolutionCache(File file, int maxEntries) throws IOException {
+		this(file, maxEntries, false);
+	}
+
+	/**
+	 * Opens the cache file and builds the index.
+	 *
+	 * @param file       the cache file
+	 * @param maxEntries the most levels kept in the cache
+	 * @param readOnly   true to only look up solutions; the file must exist then
+	 * @throws IOException if the file cannot be read or written
+	 */
+	public SolutionCache(File file, int maxEntries, boolean readOnly) throws IOException {
+		this.file = file;
+		this.maxEntries = maxEntries;
+		this.readOnly = readOnly;
+		this.index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		open();
+		locked(() -> null);
+	}
+
+	/**
+	 * Opens the channel and remembers which file it is, so locked() can tell
+	 * when the path points to a new file. The key is read before and after
+	 * opening, in case a compaction swapped the files in between.
+	 */
+	private void open() throws IOException {
+		while (true) {
+			Object before = fileKey();
+			channel = readOnly ? FileChannel.open(file.toPath(), StandardOpenOption.READ)
+					: FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+							StandardOpenOption.WRITE);
+			fileKey = fileKey();
+			if (before == null || before.equals(fileKey))
+				return;
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the key of the file the path points to now, or null if there is
+	 *         no file or the file system has no keys
+	 */
+	private Object fileKey() throws IOException {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true when the path now points to another file than the channel
+	 */
+	private boolean replaced() throws IOException {
+		Object key = fileKey();
+		return key != null && !key.equals(fileKey);
+	}
+
+	/**
+	 * Runs work with the lock on the cache file held, after reading the records
+	 * other programs added. Algorithm: the lock is taken (shared when read only).
+	 * If the file was compacted and replaced meanwhile, the lock is let go, the
+	 * new file is opened and read from the start. Programs in this JVM wait for
+	 * each other on the class, because a FileLock only keeps other processes
+	 * out.
+	 */
+	private <T> T locked(Locked<T> work) throws IOException {
+		synchronized (SolutionCache.class) {
+			while (true) {
+				FileLock lock = channel.lock(0, Long.MAX_VALUE, readOnly);
+				try {
+					if (!replaced()) {
+						scan();
+						return work.run();
+					}
+				} finally {
+					// a compaction closes the channel, which lets go of the lock
+					if (lock.isValid())
+						lock.release();
+				}
+				channel.close();
+				open();
+				index.clear();
+				end = 0;
+				liveBytes = 0;
+				newest = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads the records from end onwards into the index. Algorithm: the first
+	 * record that is cut short or has a bad CRC32 marks the end of the good
+	 * data, and unless the cache is read only the file is truncated there. A
+	 * data record puts its level at the most recently used end of the index,
+	 * where the last record of a level wins; a touch record only moves its level
+	 * there.
+	 */
+	private void scan() throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(4);
+		while (end + 4 <= size) {
+			header.clear();
+			channel.read(header, end);
+			int length = header.getInt(0);
+			if (length < 12 || end + length > size)
+				break;
+			byte[] body = readBody(end, length);
+			if (body == null)
+				break;
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+			String hash = in.readUTF();
+			if (in.available() > 0) {
+				Entry old = index.put(hash, new Entry(end, length));
+				if (old != null)
+					liveBytes -= old.length;
+				liveBytes += length;
+				newest = hash;
+			} else if (index.get(hash) != null) {
+				newest = hash;
+			}
+			end += length;
+		}
+		if (!readOnly && end < size)
+			channel.truncate(end);
+		trim();
+	}
+
+	/**
+	 * Reads the data of a record and checks its CRC32.
+	 *
+	 * @return the data, or null when the record is damaged
+	 */
+	private byte[] readBody(long offset, int length) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(length);
+		while (record.hasRemaining() && channel.read(record, offset + record.position()) > 0)
+			;
+		if (record.hasRemaining())
+			return null;
+		byte[] body = new byte[length - 12];
+		record.position(4);
+		record.get(body);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return crc.getValue() == record.getLong() ? body : null;
+	}
+
+	/**
+	 * Works out the hash of a level. Algorithm: the level is flattened with
+	 * LevelGrid and cut down to the smallest rectangle holding every cell that
+	 * is not a wall. The size of that rectangle and one character per cell are
+	 * then hashed with SHA-256.
+	 *
+	 * @param level the level
+	 * @param goals the goal list of the level
+	 * @return the hash as a hex String
+	 */
+	public static String levelHash(char[][] level, int[] goals) {
+		return levelHash(LevelGrid.fromLevel(level, goals));
+	}
+
+	/**
+	 * Same as levelHash() above, for a level that is already flattened.
+	 *
+	 * @param grid the level
+	 * @return the hash as a hex String
+	 */
+	public static String levelHash(LevelGrid grid) {
+		int top = grid.rows, bottom = -1, left = grid.cols, right = -1;
+		for (int cell = 0; cell < grid.walls.length; cell++) {
+			if (!grid.walls[cell]) {
+				top = Math.min(top, cell / grid.cols);
+				bottom = Math.max(bottom, cell / grid.cols);
+				left = Math.min(left, cell % grid.cols);
+				right = Math.max(right, cell % grid.cols);
+			}
+		}
+		boolean[] boxAt = grid.boxMap(grid.boxes);
+		StringBuilder text = new StringBuilder();
+		text.append(bottom - top + 1).append('x').append(right - left + 1).append('\n');
+		for (int i = top; i <= bottom; i++) {
+			for (int j = left; j <= right; j++) {
+				int cell = i * grid.cols + j;
+				if (grid.walls[cell])
+					text.append(Config.WALL_CHAR);
+				else if (boxAt[cell])
+					text.append(grid.goals[cell] ? Config.BOX_GOAL_CHAR : Config.BOX_CHAR);
+				else if (cell == grid.worker)
+					text.append(grid.goals[cell] ? Config.WORK_GOAL_CHAR : Config.WORKER_CHAR);
+				else
+					text.append(grid.goals[cell] ? Config.GOAL_CHAR : Config.EMPTY_CHAR);
+			}
+			text.append('\n');
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest)
+				hex.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Looks up the solution of a level. Unless the cache is read only, a level
+	 * that was not the most recently used one gets a touch record.
+	 *
+	 * @param hash the hash of the level from levelHash()
+	 * @return the solution (with 0 nodes), or null if the level is not cached
+	 * @throws IOException if the cache file cannot be read
+	 */
+	public synchronized Solver.Result get(String hash) throws IOException {
+		byte[] body = locked(() -> {
+			Entry entry = index.get(hash);
+			if (entry == null)
+				return null;
+			byte[] found = readBody(entry.offset, entry.length);
+			if (found != null && !readOnly && !hash.equals(newest)) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				new DataOutputStream(bytes).writeUTF(hash);
+				append(bytes.toByteArray());
+				newest = hash;
+			}
+			return found;
+		});
+		if (body == null)
+			return null;
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		in.readUTF();
+		int pushes = in.readInt();
+		int count = in.readInt();
+		ArrayList<String> moves = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+			moves.add(in.readUTF());
+		return new Solver.Result(Solver.SOLVED, moves, pushes, 0, 0);
+	}
+
+	/**
+	 * Adds the solution of a level to the end of the cache file.
+	 *
+	 * @param hash     the hash of the level from levelHash()
+	 * @param solution a result of Solver with status SOLVED (so with the fewest
+	 *                 pushes)
+	 * @throws IOException if the cache file cannot be written
+	 */
+	public synchronized void put(String hash, Solver.Result solution) throws IOException {
+		if (readOnly)
+			throw new IOException("Solution cache is read only: " + file);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(hash);
+		out.writeInt(solution.pushes);
+		out.writeInt(solution.moves.size());
+		for (String move : solution.moves)
+			out.writeUTF(move);
+		byte[] body = bytes.toByteArray();
+		locked(() -> {
+			long offset = end;
+			Entry old = index.put(hash, new Entry(offset, body.length + 12));
+			if (old != null)
+				liveBytes -= old.length;
+			liveBytes += body.length + 12;
+			newest = hash;
+			trim();
+			append(body);
+			return null;
+		});
+	}
+
+	/**
+	 * Adds a record to the end of the file, and compacts the file when it has
+	 * become more than twice as big as the records still in use. Called with
+	 * the lock held.
+	 */
+	private void append(byte[] body) throws IOException {
+		writeRecord(channel, end, body);
+		end += body.length + 12;
+		if (end > 2 * liveBytes + 4096)
+			rewrite();
+	}
+
+	/**
+	 * Writes one record (length, data, CRC32) at the given offset.
+	 */
+	private static void writeRecord(FileChannel to, long offset, byte[] body) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		ByteBuffer record = ByteBuffer.allocate(body.length + 12);
+		record.putInt(body.length + 12).put(body).putLong(crc.getValue()).flip();
+		while (record.hasRemaining())
+			to.write(record, offset + record.position());
+	}
+
+	/**
+	 * Forgets the least recently used levels until there are at most
+	 * maxEntries.
+	 */
+	private void trim() {
+		Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+		while (index.size() > maxEntries && it.hasNext()) {
+			liveBytes -= it.next().getValue().length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Rewrites the cache file with only the records still in the index, least
+	 * recently used first so the order survives a restart. The new file is
+	 * forced to disk before it replaces the old one, so a crash at any point
+	 * leaves one complete file.
+	 *
+	 * @throws IOException if the files cannot be written
+	 */
+	public synchronized void compact() throws IOException {
+		if (readOnly)
+			throw new IOException("Solution cache is read only: " + file);
+		locked(() -> {
+			rewrite();
+			return null;
+		});
+	}
+
+	/**
+	 * Does the work of compact() with the lock held. The old file stays locked
+	 * until the new one is in its place, and the new one is then opened.
+	 */
+	private void rewrite() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		LinkedHashMap<String, Entry> moved = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		long offset = 0;
+		try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Map.Entry<String, Entry> e : index.entrySet()) {
+				byte[] body = readBody(e.getValue().offset, e.getValue().length);
+				if (body == null)
+					continue;
+				writeRecord(out, offset, body);
+				moved.put(e.getKey(), new Entry(offset, body.length + 12));
+				offset += body.length + 12;
+			}
+			out.force(true);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel.close();
+		open();
+		index.clear();
+		index.putAll(moved);
+		end = offset;
+		liveBytes = offset;
+	}
+
+	/**
+	 * @return the number of levels in the cache
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the solution of a level, from the cache when it is there and from
+	 * Solver.solve() otherwise. New solutions are added to the cache.
+	 *
+	 * @param level     the level
+	 * @param goals     the goal list of the level
+	 * @param maxNodes  the most positions the search may expand
+	 * @param maxMillis the most time the search may take
+	 * @return the result, with 0 nodes when it came from the cache
+	 * @throws IOException if the cache file cannot be read or written
+	 */
+	public Solver.Result solve(char[][] level, int[] goals, long maxNodes, long maxMillis) throws IOException {
+		return solve(level, goals, maxNodes, maxMillis, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Same as solve() above, with a limit on the positions the search keeps in
+	 * memory (see Solver.solve()).
+	 *
+	 * @param level     the level
+	 * @param goals     the goal list of the level
+	 * @param maxNodes  the most positions the search may expand
+	 * @param maxMillis the most time the search may take
+	 * @param maxStates the most positions the search may keep in memory
+	 * @return the result, with 0 nodes when it came from the cache
+	 * @throws IOException if the cache file cannot be read or written
+	 */
+	public Solver.Result solve(char[][] level, int[] goals, long maxNodes, long maxMillis, long maxStates)
+			throws IOException {
+		long begin = System.currentTimeMillis();
+		String hash = levelHash(level, goals);
+		Solver.Result cached = get(hash);
+		if (cached != null)
+			return new Solver.Result(Solver.SOLVED, cached.moves, cached.pushes, 0, System.currentTimeMillis() - begin);
+		Solver.Result result = Solver.solve(LevelGrid.fromLevel(level, goals), maxNodes, maxMillis, maxStates);
+		if (result.status == Solver.SOLVED)
+			put(hash, result);
+		return result;
+	}
+
+	/**
+	 * Flushes the cache file to disk and closes it.
+	 */
+	public synchronized void close() throws IOException {
+		if (!readOnly)
+			channel.force(true);
+		channel.close();
+	}
+}
@@ -0,0 +1,832 @@
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Solver: Finds the solution of a level with the fewest pushes. The search is
+ * a breadth first search where one step is one push, and positions are kept
+ * as the sorted box cells plus the normalized worker cell (see LevelGrid).
+ * Pushes that put a box on a dead square are never tried.
+ *
+ * There are two modes. solve() keeps every position it has seen in memory.
+ * solveExternal() is for levels where that does not fit: each layer of the
+ * search lives in a sorted file on disk and duplicates are removed later, in
+ * big sorted batches, instead of one position at a time (delayed duplicate
+ * detection). Only the batch of new positions waiting to be sorted is kept in
+ * memory, and its size is set by the caller. All files are read and written
+ * from start to end with NIO channels.
+ *
+ * The solution is returned as moves in the same format as the move files
+ * read with the 'l' command, for example "6" or "83".
+ *
+ * Usage: java Solver [levelFile] [level] [maxNodes] [externalDir] [memoryMB]
+ *
+ */
+public class Solver {
+
+	public static final int SOLVED = 1; // a solution was found
+	public static final int NO_SOLUTION = 0; // every position was tried, there is no solution
+	public static final int OUT_OF_BUDGET = -1; // the node, state or time budget ran out first
+
+	public static final long DEFAULT_MEMORY = 64L * 1024 * 1024; // bytes for the external batch
+	private static final int IO_BUFFER = 64 * 1024; // bytes buffered per open file
+	private static final int MAX_MERGE = 64; // files merged at once
+
+	/**
+	 * The outcome of a search.
+	 */
+	public static class Result {
+		public final int status; // SOLVED, NO_SOLUTION or OUT_OF_BUDGET
+		public final ArrayList<String> moves; // the solution, empty unless SOLVED
+		public final int pushes; // pushes in the solution, -1 unless SOLVED
+		public final long nodes; // positions expanded by the search
+		public final long millis; // time spent searching
+
+		public Result(int status, ArrayList<String> moves, int pushes, long nodes, long millis) {
+			this.status = status;
+			this.moves = moves;
+			this.pushes = pushes;
+			this.nodes = nodes;
+			this.millis = millis;
+		}
+	}
+
+	/**
+	 * @param level the level
+	 * @return the start position of the level: sorted boxes, then the worker
+	 */
+	public static int[] startState(LevelGrid level) {
+		int[] state = Arrays.copyOf(level.boxes, level.boxes.length + 1);
+		state[level.boxes.length] = LevelGrid
+				.normalize(level.reachable(level.boxMap(level.boxes), level.worker));
+		return state;
+	}
+
+	/**
+	 * @param level the level
+	 * @param state a position
+	 * @return true when every box of the position is on a goal
+	 */
+	public static boolean isSolved(LevelGrid level, int[] state) {
+		for (int i = 0; i < state.length - 1; i++)
+			if (!level.goals[state[i]])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param state a position
+	 * @return the key of the position for a HashMap
+	 */
+	public static String key(int[] state) {
+		return LevelGrid.key(Arrays.copyOf(state, state.length - 1), state[state.length - 1]);
+	}
+
+	/**
+	 * Work arrays for successors(), one set per search, so the board-sized
+	 * arrays are not allocated again for every position. The flood fills mark
+	 * their cells with a new stamp each time instead of clearing the arrays.
+	 */
+	public static class Scratch {
+		final boolean[] boxAt; // the boxes of the position, all false between calls
+		final int[] reach; // where the worker can walk before the push
+		final int[] seen; // where the worker can walk after the push
+		final int[] stack; // the stack of the flood fills
+		private int stamp; // the mark of the last flood fill
+
+		public Scratch(LevelGrid level) {
+			int size = level.walls.length;
+			boxAt = new boolean[size];
+			reach = new int[size];
+			seen = new int[size];
+			stack = new int[size];
+		}
+
+		/**
+		 * @return a mark not in reach or seen yet
+		 */
+		int nextStamp() {
+			if (stamp == Integer.MAX_VALUE) {
+				Arrays.fill(reach, 0);
+				Arrays.fill(seen, 0);
+				stamp = 0;
+			}
+			return ++stamp;
+		}
+	}
+
+	/**
+	 * Same as successors() below, with new work arrays.
+	 *
+	 * @param level the level
+	 * @param dead  the dead squares of the level
+	 * @param state a position
+	 * @return the positions one push away
+	 */
+	public static ArrayList<int[]> successors(LevelGrid level, boolean[] dead, int[] state) {
+		return successors(level, dead, state, new Scratch(level));
+	}
+
+	/**
+	 * Finds every position one push away. Algorithm: the cells the worker can
+	 * reach are flood filled once. For each box and direction, the push is legal
+	 * if the worker can reach the cell behind the box and the cell in front of it
+	 * is floor, free and not a dead square. The pushed box is moved into sorted
+	 * order and the worker, now on the box's old cell, is normalized again: the
+	 * smallest cell of a second flood fill.
+	 *
+	 * @param level   the level
+	 * @param dead    the dead squares of the level
+	 * @param state   a position
+	 * @param scratch the work arrays of the search
+	 * @return the positions one push away
+	 */
+	public static ArrayList<int[]> successors(LevelGrid level, boolean[] dead, int[] state, Scratch scratch) {
+		int n = state.length - 1;
+		boolean[] boxAt = scratch.boxAt;
+		int[] reach = scratch.reach;
+		for (int i = 0; i < n; i++)
+			boxAt[state[i]] = true;
+		int reached = scratch.nextStamp();
+		level.reachable(boxAt, state[n], reach, reached, scratch.stack);
+		ArrayList<int[]> next = new ArrayList<int[]>();
+		for (int b = 0; b < n; b++) {
+			int box = state[b];
+			for (int d : level.dirs) {
+				int to = box + d;
+				if (reach[box - d] != reached || level.walls[to] || boxAt[to] || dead[to])
+					continue;
+				int[] moved = state.clone();
+				moved[b] = to;
+				// keep the boxes sorted, only the pushed one can be out of place
+				for (int i = b; i > 0 && moved[i] < moved[i - 1]; i--) {
+					int swap = moved[i];
+					moved[i] = moved[i - 1];
+					moved[i - 1] = swap;
+				}
+				for (int i = b; i < n - 1 && moved[i] > moved[i + 1]; i++) {
+					int swap = moved[i];
+					moved[i] = moved[i + 1];
+					moved[i + 1] = swap;
+				}
+				boxAt[box] = false;
+				boxAt[to] = true;
+				moved[n] = level.reachable(boxAt, box, scratch.seen, scratch.nextStamp(), scratch.stack);
+				boxAt[to] = false;
+				boxAt[box] = true;
+				next.add(moved);
+			}
+		}
+		for (int i = 0; i < n; i++)
+			boxAt[state[i]] = false;
+		return next;
+	}
+
+	/**
+	 * Solves a level keeping every position in memory.
+	 *
+	 * @param level     the level
+	 * @param maxNodes  the most positions to expand
+	 * @param maxMillis the most time to spend
+	 * @return the result of the search
+	 */
+	public static Result solve(LevelGrid level, long maxNodes, long maxMillis) {
+		return solve(level, maxNodes, maxMillis, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Works out roughly how much memory solve() uses for each position it keeps:
+	 * the entry in the map of parents with its key, the position itself and its
+	 * place in the queue.
+	 *
+	 * @param level the level
+	 * @return bytes per position kept
+	 */
+	public static long bytesPerState(LevelGrid level) {
+		return 128 + 8L * (level.boxes.length + 1);
+	}
+
+	/**
+	 * Same as solve() above, but the search also stops once it keeps maxStates
+	 * positions, so its memory stays near maxStates times bytesPerState(). The
+	 * positions of the last expansion may take it a few past maxStates.
+	 *
+	 * @param level     the level
+	 * @param maxNodes  the most positions to expand
+	 * @param maxMillis the most time to spend
+	 * @param maxStates the most positions to keep in memory
+	 * @return the result of the search
+	 */
+	public static Result solve(LevelGrid level, long maxNodes, long maxMillis, long maxStates) {
+		long begin = System.currentTimeMillis();
+		boolean[] dead = level.deadSquares();
+		int[] start = startState(level);
+		HashMap<String, int[]> parent = new HashMap<String, int[]>();
+		ArrayDeque<int[]> open = new ArrayDeque<int[]>();
+		parent.put(key(start), null);
+		open.add(start);
+		Scratch scratch = new Scratch(level);
+		long nodes = 0;
+		while (!open.isEmpty()) {
+			int[] state = open.poll();
+			if (isSolved(level, state)) {
+				ArrayList<int[]> path = new ArrayList<int[]>();
+				for (int[] at = state; at != null; at = parent.get(key(at)))
+					path.add(at);
+				Collections.reverse(path);
+				return new Result(SOLVED, toMoves(level, path), path.size() - 1, nodes,
+						System.currentTimeMillis() - begin);
+			}
+			if (nodes >= maxNodes || parent.size() >= maxStates || System.currentTimeMillis() - begin > maxMillis)
+				return new Result(OUT_OF_BUDGET, new ArrayList<String>(), -1, nodes, System.currentTimeMillis() - begin);
+			nodes++;
+			for (int[] next : successors(level, dead, state, scratch)) {
+				String nextKey = key(next);
+				if (!parent.containsKey(nextKey)) {
+					parent.put(nextKey, state);
+					open.add(next);
+				}
+			}
+		}
+		return new Result(NO_SOLUTION, new ArrayList<String>(), -1, nodes, System.currentTimeMillis() - begin);
+	}
+
+	/**
+	 * Turns a list of positions, one push apart, into moves for the worker.
+	 * Algorithm: for each push the box that moved and its direction are found by
+	 * comparing the two positions. The worker walks to the cell behind the box
+	 * along a shortest path (a breadth first search around the boxes) and then
+	 * pushes. Runs of steps in the same direction are joined, "6" then "6"
+	 * becomes "62".
+	 *
+	 * @param level the level
+	 * @param path  the positions from the start to the solution
+	 * @return the moves
+	 */
+	public static ArrayList<String> toMoves(LevelGrid level, ArrayList<int[]> path) {
+		StringBuilder steps = new StringBuilder();
+		int worker = level.worker;
+		for (int p = 1; p < path.size(); p++) {
+			int[] before = path.get(p - 1);
+			int[] after = path.get(p);
+			int n = before.length - 1;
+			boolean[] boxAt = new boolean[level.walls.length];
+			boolean[] afterAt = new boolean[level.walls.length];
+			for (int i = 0; i < n; i++) {
+				boxAt[before[i]] = true;
+				afterAt[after[i]] = true;
+			}
+			int from = -1, to = -1;
+			for (int i = 0; i < n; i++) {
+				if (!afterAt[before[i]])
+					from = before[i];
+				if (!boxAt[after[i]])
+					to = after[i];
+			}
+			int d = to - from;
+			steps.append(walk(level, boxAt, worker, from - d));
+			steps.append(dirChar(level, d));
+			worker = from;
+		}
+		ArrayList<String> moves = new ArrayList<String>();
+		for (int i = 0; i < steps.length();) {
+			int j = i;
+			while (j < steps.length() && steps.charAt(j) == steps.charAt(i))
+				j++;
+			moves.add(steps.charAt(i) + (j - i > 1 ? Integer.toString(j - i) : ""));
+			i = j;
+		}
+		return moves;
+	}
+
+	/**
+	 * @param level the level
+	 * @param d     one of the values in level.dirs
+	 * @return the key the player presses to move that way
+	 */
+	public static char dirChar(LevelGrid level, int d) {
+		if (d == -level.cols)
+			return Config.UP_CHAR;
+		if (d == level.cols)
+			return Config.DOWN_CHAR;
+		return d < 0 ? Config.LEFT_CHAR : Config.RIGHT_CHAR;
+	}
+
+	/**
+	 * @param level the level
+	 * @param boxAt true for every cell holding a box
+	 * @param from  where the worker is
+	 * @param to    where the worker has to go
+	 * @return the keys for a shortest walk from one cell to the other
+	 */
+	public static String walk(LevelGrid level, boolean[] boxAt, int from, int to) {
+		int[] came = new int[level.walls.length];
+		Arrays.fill(came, -1);
+		int[] queue = new int[level.walls.length];
+		int head = 0, tail = 0;
+		queue[tail++] = from;
+		came[from] = from;
+		while (head < tail && came[to] < 0) {
+			int cell = queue[head++];
+			for (int d : level.dirs) {
+				int next = cell + d;
+				if (came[next] < 0 && !level.walls[next] && !boxAt[next]) {
+					came[next] = cell;
+					queue[tail++] = next;
+				}
+			}
+		}
+		StringBuilder keys = new StringBuilder();
+		for (int cell = to; cell != from; cell = came[cell])
+			keys.append(dirChar(level, cell - came[cell]));
+		return keys.reverse().toString();
+	}
+
+	/*
+	 * The external mode stores positions as records of whole longs: each box cell
+	 * and the worker cell take 16 bits, four to a long, or 32 bits, two to a
+	 * long, on boards with more than 65536 cells. The top bit of every long is
+	 * flipped so that comparing records as signed longs sorts them the same way
+	 * as comparing the cells.
+	 */
+
+	/**
+	 * @param level the level
+	 * @return the bits each cell takes in a record for that level
+	 */
+	public static int cellBits(LevelGrid level) {
+		return level.walls.length <= 1 << 16 ? 16 : 32;
+	}
+
+	/**
+	 * @param state a position
+	 * @param bits  the bits per cell, from cellBits()
+	 * @return the number of longs in a record for positions of that size
+	 */
+	public static int recordWords(int[] state, int bits) {
+		int perWord = 64 / bits;
+		return (state.length + perWord - 1) / perWord;
+	}
+
+	/**
+	 * Packs a position into words longs of buf starting at index at.
+	 */
+	public static void pack(int[] state, long[] buf, int at, int words, int bits) {
+		int perWord = 64 / bits;
+		long mask = (1L << bits) - 1;
+		for (int w = 0; w < words; w++) {
+			long word = 0;
+			for (int k = 0; k < perWord; k++) {
+				int i = w * perWord + k;
+				word = (word << bits) | (i < state.length ? state[i] & mask : 0);
+			}
+			buf[at + w] = word ^ Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Unpacks the record at index at of buf into state.
+	 */
+	public static void unpack(long[] buf, int at, int[] state, int bits) {
+		int perWord = 64 / bits;
+		long mask = (1L << bits) - 1;
+		for (int i = 0; i < state.length; i++) {
+			long word = buf[at + i / perWord] ^ Long.MIN_VALUE;
+			state[i] = (int) ((word >>> (64 - bits * (i % perWord + 1))) & mask);
+		}
+	}
+
+	/**
+	 * Compares the record at index a of x with the record at index b of y.
+	 */
+	private static int compare(long[] x, int a, long[] y, int b, int words) {
+		for (int w = 0; w < words; w++) {
+			int c = Long.compare(x[a + w], y[b + w]);
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+
+	private static void swap(long[] buf, int a, int b, int words) {
+		for (int w = 0; w < words; w++) {
+			long t = buf[a * words + w];
+			buf[a * words + w] = buf[b * words + w];
+			buf[b * words + w] = t;
+		}
+	}
+
+	/**
+	 * Sorts the first count records of buf and removes duplicates. Algorithm:
+	 * records of one long are sorted with Arrays.sort(), longer ones with a
+	 * quicksort that swaps whole records.
+	 *
+	 * @return the number of distinct records left at the front of buf
+	 */
+	public static int sortUnique(long[] buf, int count, int words) {
+		if (words == 1)
+			Arrays.sort(buf, 0, count);
+		else
+			quicksort(buf, 0, count - 1, words, new long[words]);
+		int kept = 0;
+		for (int r = 0; r < count; r++) {
+			if (kept > 0 && compare(buf, r * words, buf, (kept - 1) * words, words) == 0)
+				continue;
+			if (kept != r)
+				System.arraycopy(buf, r * words, buf, kept * words, words);
+			kept++;
+		}
+		return kept;
+	}
+
+	/**
+	 * Quicksort with a three way partition: records below the pivot, equal to it
+	 * and above it. A batch holds many copies of the same position, and the
+	 * equal records are never looked at again, so runs of duplicates do not
+	 * make the sort quadratic. The pivot is copied to pivot because it moves
+	 * while the records are swapped.
+	 */
+	private static void quicksort(long[] buf, int lo, int hi, int words, long[] pivot) {
+		while (lo < hi) {
+			System.arraycopy(buf, ((lo + hi) >>> 1) * words, pivot, 0, words);
+			int lt = lo, r = lo, gt = hi;
+			while (r <= gt) {
+				int c = compare(buf, r * words, pivot, 0, words);
+				if (c < 0)
+					swap(buf, lt++, r++, words);
+				else if (c > 0)
+					swap(buf, r, gt--, words);
+				else
+					r++;
+			}
+			// recurse into the smaller side so the stack stays small
+			if (lt - lo < hi - gt) {
+				quicksort(buf, lo, lt - 1, words, pivot);
+				lo = gt + 1;
+			} else {
+				quicksort(buf, gt + 1, hi, words, pivot);
+				hi = lt - 1;
+			}
+		}
+	}
+
+	/**
+	 * Reads records from a sorted file one at a time.
+	 */
+	public static class RecordReader implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		public final long[] record; // the current record
+
+		public RecordReader(File file, int words) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			buffer = ByteBuffer.allocateDirect(IO_BUFFER - IO_BUFFER % (words * 8));
+			buffer.flip();
+			record = new long[words];
+		}
+
+		/**
+		 * @return true when the next record was read into record, false at the end
+		 */
+		public boolean next() throws IOException {
+			if (buffer.remaining() < record.length * 8) {
+				buffer.compact();
+				while (buffer.position() < record.length * 8 && channel.read(buffer) > 0)
+					;
+				buffer.flip();
+				if (buffer.remaining() < record.length * 8)
+					return false;
+			}
+			for (int w = 0; w < record.length; w++)
+				record[w] = buffer.getLong();
+			return true;
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes records to a file from start to end.
+	 */
+	public static class RecordWriter implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		public long count; // records written
+
+		public RecordWriter(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buffer = ByteBuffer.allocateDirect(IO_BUFFER);
+		}
+
+		public void write(long[] buf, int at, int words) throws IOException {
+			if (buffer.remaining() < words * 8)
+				flush();
+			for (int w = 0; w < words; w++)
+				buffer.putLong(buf[at + w]);
+			count++;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		public void close() throws IOException {
+			flush();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Merges sorted files into one sorted file without duplicates. The input
+	 * files are deleted.
+	 *
+	 * @return the number of records written
+	 */
+	public static long mergeUnique(ArrayList<File> inputs, File out, int words, File dir) throws IOException {
+		return mergeUnique(inputs, out, words, dir, false);
+	}
+
+	/**
+	 * Merges sorted files into one sorted file without duplicates. When there are
+	 * more than MAX_MERGE files they are merged in groups first, so the number of
+	 * open files (and their buffers) stays bounded. The files of those groups are
+	 * always deleted, the input files only when keepInputs is false.
+	 *
+	 * @param keepInputs true to leave the input files in place
+	 * @return the number of records written
+	 */
+	public static long mergeUnique(ArrayList<File> inputs, File out, int words, File dir, boolean keepInputs)
+			throws IOException {
+		while (inputs.size() > MAX_MERGE) {
+			ArrayList<File> merged = new ArrayList<File>();
+			for (int i = 0; i < inputs.size(); i += MAX_MERGE) {
+				File part = File.createTempFile("merge", ".run", dir);
+				mergeUnique(new ArrayList<File>(inputs.subList(i, Math.min(i + MAX_MERGE, inputs.size()))), part,
+						words, dir, keepInputs);
+				merged.add(part);
+			}
+			inputs = merged;
+			keepInputs = false;
+		}
+		ArrayList<RecordReader> readers = new ArrayList<RecordReader>();
+		PriorityQueue<RecordReader> heap = new PriorityQueue<RecordReader>(
+				(x, y) -> compare(x.record, 0, y.record, 0, words));
+		long[] last = new long[words];
+		boolean any = false;
+		try (RecordWriter writer = new RecordWriter(out)) {
+			for (File input : inputs) {
+				RecordReader reader = new RecordReader(input, words);
+				readers.add(reader);
+				if (reader.next())
+					heap.add(reader);
+			}
+			while (!heap.isEmpty()) {
+				RecordReader reader = heap.poll();
+				if (!any || compare(reader.record, 0, last, 0, words) != 0) {
+					writer.write(reader.record, 0, words);
+					System.arraycopy(reader.record, 0, last, 0, words);
+					any = true;
+				}
+				if (reader.next())
+					heap.add(reader);
+			}
+			return writer.count;
+		} finally {
+			for (RecordReader reader : readers)
+				reader.close();
+			if (!keepInputs)
+				for (File input : inputs)
+					input.delete();
+		}
+	}
+
+	/**
+	 * Solves a level with the open and closed sets on disk. Algorithm: the search
+	 * goes layer by layer. The positions of the current layer are read from its
+	 * file and their successors are collected in a buffer of at most
+	 * memoryBytes; whenever it is full it is sorted, made unique and written out
+	 * as a run file. After the layer the runs are merged, and the merged file is
+	 * walked side by side with the closed file (every position seen so far, also
+	 * sorted) so that only new positions are written to the next layer. Finally
+	 * the next layer is merged into the closed file. The layer files are kept
+	 * until the end so the solution can be traced back: for each layer going
+	 * backwards, the file is scanned for a position with the wanted successor.
+	 *
+	 * @param level       the level
+	 * @param maxNodes    the most positions to expand
+	 * @param maxMillis   the most time to spend
+	 * @param dir         the directory for the search files
+	 * @param memoryBytes the most memory for the batch of new positions
+	 * @return the result of the search
+	 * @throws IOException if a search file cannot be read or written
+	 */
+	public static Result solveExternal(LevelGrid level, long maxNodes, long maxMillis, File dir, long memoryBytes)
+			throws IOException {
+		long begin = System.currentTimeMillis();
+		boolean[] dead = level.deadSquares();
+		int[] start = startState(level);
+		int bits = cellBits(level);
+		int words = recordWords(start, bits);
+		int capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE / words, memoryBytes / 8 / words));
+		File work = Files.createTempDirectory(dir.toPath(), "sokoban-search").toFile();
+		ArrayList<File> layers = new ArrayList<File>();
+		long nodes = 0;
+		try {
+			long[] one = new long[words];
+			pack(start, one, 0, words, bits);
+			File layer = new File(work, "layer0.bin");
+			try (RecordWriter writer = new RecordWriter(layer)) {
+				writer.write(one, 0, words);
+			}
+			layers.add(layer);
+			File closed = new File(work, "closed0.bin");
+			Files.copy(layer.toPath(), closed.toPath());
+			if (isSolved(level, start))
+				return new Result(SOLVED, new ArrayList<String>(), 0, 0, System.currentTimeMillis() - begin);
+
+			long[] batch = new long[capacity * words];
+			int[] state = new int[start.length];
+			Scratch scratch = new Scratch(level);
+			while (true) {
+				// expand the current layer into sorted runs
+				ArrayList<File> runs = new ArrayList<File>();
+				int count = 0;
+				try (RecordReader reader = new RecordReader(layers.get(layers.size() - 1), words)) {
+					while (reader.next()) {
+						if (nodes >= maxNodes || System.currentTimeMillis() - begin > maxMillis)
+							return new Result(OUT_OF_BUDGET, new ArrayList<String>(), -1, nodes,
+									System.currentTimeMillis() - begin);
+						nodes++;
+						unpack(reader.record, 0, state, bits);
+						for (int[] next : successors(level, dead, state, scratch)) {
+							if (count == capacity) {
+								runs.add(writeRun(batch, count, words, work));
+								count = 0;
+							}
+							pack(next, batch, count * words, words, bits);
+							count++;
+						}
+					}
+				}
+				if (count > 0)
+					runs.add(writeRun(batch, count, words, work));
+				if (runs.isEmpty())
+					return new Result(NO_SOLUTION, new ArrayList<String>(), -1, nodes,
+							System.currentTimeMillis() - begin);
+				File candidates = new File(work, "candidates.bin");
+				mergeUnique(runs, candidates, words, work);
+
+				// keep only the candidates that are not in the closed file
+				File nextLayer = new File(work, "layer" + layers.size() + ".bin");
+				int[] goal = null;
+				long added = 0;
+				try (RecordReader cand = new RecordReader(candidates, words);
+						RecordReader old = new RecordReader(closed, words);
+						RecordWriter writer = new RecordWriter(nextLayer)) {
+					boolean hasOld = old.next();
+					while (cand.next()) {
+						while (hasOld && compare(old.record, 0, cand.record, 0, words) < 0)
+							hasOld = old.next();
+						if (hasOld && compare(old.record, 0, cand.record, 0, words) == 0)
+							continue;
+						writer.write(cand.record, 0, words);
+						added++;
+						if (goal == null) {
+							unpack(cand.record, 0, state, bits);
+							if (isSolved(level, state))
+								goal = state.clone();
+						}
+					}
+				}
+				candidates.delete();
+				layers.add(nextLayer);
+				if (goal != null)
+					return new Result(SOLVED, toMoves(level, tracePath(level, dead, layers, goal, words, bits)),
+							layers.size() - 1, nodes, System.currentTimeMillis() - begin);
+				if (added == 0)
+					return new Result(NO_SOLUTION, new ArrayList<String>(), -1, nodes,
+							System.currentTimeMillis() - begin);
+
+				// closed = closed + next layer
+				// the layer file stays for tracePath(), the old closed file goes
+				File newClosed = new File(work, "closed" + layers.size() + ".bin");
+				mergeUnique(new ArrayList<File>(Arrays.asList(closed, nextLayer)), newClosed, words, work, true);
+				closed.delete();
+				closed = newClosed;
+			}
+		} finally {
+			File[] left = work.listFiles();
+			if (left != null)
+				for (File file : left)
+					file.delete();
+			work.delete();
+		}
+	}
+
+	/**
+	 * Sorts a batch of records and writes it to a new run file.
+	 */
+	private static File writeRun(long[] batch, int count, int words, File dir) throws IOException {
+		int kept = sortUnique(batch, count, words);
+		File run = File.createTempFile("run", ".bin", dir);
+		try (RecordWriter writer = new RecordWriter(run)) {
+			for (int r = 0; r < kept; r++)
+				writer.write(batch, r * words, words);
+		}
+		return run;
+	}
+
+	/**
+	 * Traces the path from the start to a goal position through the layer
+	 * files, going backwards one layer at a time.
+	 *
+	 * @return the positions from the start to the goal
+	 */
+	private static ArrayList<int[]> tracePath(LevelGrid level, boolean[] dead, ArrayList<File> layers, int[] goal,
+			int words, int bits) throws IOException {
+		ArrayList<int[]> path = new ArrayList<int[]>();
+		path.add(goal);
+		int[] target = goal;
+		Scratch scratch = new Scratch(level);
+		for (int k = layers.size() - 2; k >= 0; k--) {
+			int[] found = null;
+			int[] state = new int[goal.length];
+			try (RecordReader reader = new RecordReader(layers.get(k), words)) {
+				while (found == null && reader.next()) {
+					unpack(reader.record, 0, state, bits);
+					for (int[] next : successors(level, dead, state, scratch)) {
+						if (Arrays.equals(next, target)) {
+							found = state.clone();
+							break;
+						}
+					}
+				}
+			}
+			path.add(found);
+			target = found;
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * Loads the levels (or uses Config.LEVELS when no file is given), solves one
+	 * and prints the moves. Without externalDir the solution comes from the
+	 * solution cache when the level was solved before.
+	 *
+	 * @param args [levelFile] [level] [maxNodes] [externalDir] [memoryMB]
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0 && !args[0].isEmpty()) {
+			try {
+				Sokoban.loadLevels(args[0], Config.LEVELS, Config.GOALS);
+			} catch (FileNotFoundException notFound) {
+				System.out.println("Error while reading file: " + args[0]);
+				return;
+			}
+		}
+		int levelChoice = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		long maxNodes = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+		int lvlTest = Sokoban.checkLevel(levelChoice, Config.LEVELS, Config.GOALS);
+		if (lvlTest < 1) {
+			Sokoban.isLevelValid(levelChoice, lvlTest);
+			return;
+		}
+		LevelGrid level = LevelGrid.fromLevel(Config.LEVELS.get(levelChoice), Config.GOALS.get(levelChoice));
+		Result result;
+		try {
+			if (args.length > 3)
+				result = solveExternal(level, maxNodes, Long.MAX_VALUE, new File(args[3]),
+						args.length > 4 ? Long.parseLong(args[4]) * 1024 * 1024 : DEFAULT_MEMORY);
+			else
+				try (SolutionCache cache = new SolutionCache(new File(Config.SOLUTION_CACHE_FILE),
+						Config.SOLUTION_CACHE_SIZE)) {
+					result = cache.solve(Config.LEVELS.get(levelChoice), Config.GOALS.get(levelChoice), maxNodes,
+							Long.MAX_VALUE);
+				}
+		} catch (IOException e) {
+			System.out.println("Error while reading or writing search files.");
+			e.printStackTrace();
+			return;
+		}
+		if (result.status == SOLVED) {
+			System.out.println("Solved in " + result.pushes + " pushes (" + result.nodes + " nodes, " + result.millis
+					+ " ms):");
+			for (String move : result.moves)
+				System.out.println(move);
+		} else if (result.status == NO_SOLUTION) {
+			System.out.println("Level " + levelChoice + " has no solution (" + result.nodes + " nodes).");
+		} else {
+			System.out.println("No solution found within the budget (" + result.nodes + " nodes).");
+		}
+	}
+}